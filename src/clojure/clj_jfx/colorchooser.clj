@@ -12,11 +12,13 @@
             [clj-jfx.colors :as col]
             [clj-jfx.util :as u])
   (:import (javafx.scene.paint Color)
-           (javafx.scene.layout StackPane GridPane Region VBox HBox Pane)
+           (javafx.scene.layout StackPane Region HBox Pane)
            (javafx.scene.shape Rectangle StrokeType)
+           (javafx.scene.canvas Canvas GraphicsContext)
+           (javafx.scene.effect DropShadow)
            (javafx.geometry NodeOrientation)
            (javafx.scene.input MouseEvent MouseButton)
-           (clj_jfx.combobox CustomComboBox CustomComboBoxSkin PickerColorBox)
+           (clj_jfx.combobox CustomComboBox CustomComboBoxSkin PickerColorBox PopupContentPool)
            (javafx.scene.control Label PopupControl ComboBoxBase OverrunStyle)
            (javafx.scene.control.skin ColorPickerSkin$PickerColorBox)
            (javafx.scene Node)))
@@ -155,114 +157,179 @@
 (def column-number 12)
 
 
-(defn color-cell
-  [color]
-  (doto (StackPane.)
-    (jfx/add-style-class "color-square")
-    (->
-      .getChildren
-      (.add
-        (doto (Rectangle. 15, 15, color)
-          (.setStrokeType StrokeType/INSIDE)
-          (jfx/add-style-class "color-rect"))))))
+; The palette is drawn on a single canvas (instead of one node per color) and colors are determined via hit-testing.
+; The stroke of the color rectangles is read from an invisible color square, such that stylesheets can still
+; style it via ".color-square .color-rect". The sizes of the color squares are fixed.
 
+(def ^:private ^:const cell-size 17.0)
+(def ^:private ^:const rect-size 15.0)
+(def ^:private ^:const grid-gap 6.0)
+(def ^:private ^:const hover-size 22.0)
 
-(defn fill-color-cell
-  [cell, color]
-  (-> (jfx/children cell)
-    first
-    (jfx/shape-fill! color)))
 
+(defn- grid-rows
+  ^long [color-vec]
+  (long (Math/ceil (/ (double (count color-vec)) column-number))))
 
-(defn color-of-cell
-  [cell]
-  (-> cell
-    jfx/children
-    first
-    jfx/shape-fill))
 
+(def ^:private standard-rows (grid-rows standard-colors))
 
-(defn color-grid
-  [focused-cell-prop, selected-color-prop, color-vec]
-  (let [grid-pane (doto (GridPane.)
-                    (jfx/add-style-class "color-picker-grid"))]
+
+(def ^:private palette-width (* column-number cell-size))
+
+
+(def ^:private palette-height (+ (* (+ standard-rows (grid-rows grid-colors)) cell-size) grid-gap))
+
+
+(defn- grid-offset-y
+  "Vertical offset of the grid colors."
+  ^double []
+  (+ (* standard-rows cell-size) grid-gap))
+
+
+(defn palette-cell-at
+  "Returns the palette cell {:color ..., :x ..., :y ...} (upper left corner of the cell) at the given canvas coordinates
+  or nil if there is no color at that position."
+  [^double x, ^double y]
+  (when (and (<= 0.0 x) (< x palette-width) (<= 0.0 y))
+    (let [column (long (quot x cell-size)),
+          [color-vec, ^double offset-y] (if (< y (* standard-rows cell-size))
+                                          [standard-colors, 0.0]
+                                          [grid-colors, (grid-offset-y)]),
+          row (long (Math/floor (/ (- y offset-y) cell-size))),
+          index (+ (* row column-number) column)]
+      (when (and (<= 0 row) (< index (count color-vec)))
+        {:color (nth color-vec index),
+         :x (* column cell-size),
+         :y (+ offset-y (* row cell-size))}))))
+
+
+(defn- draw-colors
+  [^GraphicsContext gc, color-vec, ^double offset-y, ^double stroke-width]
+  (let [stroke-offset (/ stroke-width 2.0),
+        stroke-size (- rect-size stroke-width)]
     (dotimes [i (count color-vec)]
-      (let [column (mod i column-number)
-            row (quot i column-number)
-            color (nth color-vec i)
-            cell (color-cell color)]
-        ; track focused cell
-        (doto cell
-          (jfx/handle-event! :mouse-entered
-            (fn [_] (props/set focused-cell-prop cell)))
-          (jfx/handle-event! :mouse-exited
-            (fn [_] (props/set focused-cell-prop nil)))
-          (jfx/handle-event! :mouse-released
-            (fn [^MouseEvent e]
-              (when (and
-                      (= (.getButton e) MouseButton/PRIMARY)
-                      (== (.getClickCount e) 1))
-                (props/set selected-color-prop, color)))))
-        ; add to grid
-        (.add grid-pane cell, column, row)))
-    ; return
-    grid-pane))
+      (let [x (+ (* (mod i column-number) cell-size) 1.0),
+            y (+ offset-y (* (quot i column-number) cell-size) 1.0)]
+        (.setFill gc (nth color-vec i))
+        (.fillRect gc x, y, rect-size, rect-size)
+        (when (pos? stroke-width)
+          (.strokeRect gc (+ x stroke-offset), (+ y stroke-offset), stroke-size, stroke-size))))))
 
 
+(defn- draw-palette!
+  [^Canvas canvas, ^Rectangle style-rect]
+  (let [stroke-width (if (.getStroke style-rect) (.getStrokeWidth style-rect) 0.0)]
+    (doto (.getGraphicsContext2D canvas)
+      (.clearRect 0.0, 0.0, (.getWidth canvas), (.getHeight canvas))
+      (.setStroke (.getStroke style-rect))
+      (.setLineWidth stroke-width)
+      (draw-colors standard-colors, 0.0, stroke-width)
+      (draw-colors grid-colors, (grid-offset-y), stroke-width))
+    canvas))
 
-(defn scaled-width
-  ^double [^StackPane cell]
-  (* (.getScaleX cell) (.getWidth cell)))
 
+(defn- style-rect
+  "Invisible color rectangle that receives the style of the color rectangles of the palette."
+  ^Rectangle []
+  (doto (Rectangle. rect-size, rect-size, Color/TRANSPARENT)
+    (.setStrokeType StrokeType/INSIDE)
+    (.setStroke (Color/gray 0.0, 0.2))
+    (.setStrokeWidth 1.0)
+    (jfx/add-style-class "color-rect")))
 
-(defn scaled-height
-  ^double [^StackPane cell]
-  (* (.getScaleY cell) (.getHeight cell)))
 
+(defn- palette-canvas
+  ^Canvas [^Rectangle style-rect]
+  (let [canvas (Canvas. palette-width, palette-height)
+        redraw (fn [_] (draw-palette! canvas, style-rect))]
+    (jfx/invalidation-listener! (.strokeProperty style-rect) redraw)
+    (jfx/invalidation-listener! (.strokeWidthProperty style-rect) redraw)
+    (draw-palette! canvas, style-rect)))
 
-(defn position
-  [^Pane color-palette, ^StackPane hover-cell, ^StackPane focused-cell]
-  (let [bounds (.localToScene focused-cell (.getLayoutBounds focused-cell))
-        x (.getMinX bounds)
-        y (.getMinY bounds)
-        cp-bounds (.localToScene color-palette (.getLayoutBounds color-palette))
-        cx (.getMinX cp-bounds)
-        cy (.getMinY cp-bounds)]
-    (doto hover-cell
-      (.setLayoutX (.snapPositionX color-palette (- x cx)))
-      (.setLayoutY (.snapPositionY color-palette (- y cy))))))
+
+(defn- hover-rect
+  ^Rectangle []
+  (doto (Rectangle. hover-size, hover-size)
+    (.setStrokeType StrokeType/INSIDE)
+    (.setStroke Color/WHITE)
+    (.setStrokeWidth 2.0)
+    (.setEffect (DropShadow. 5.0, Color/GRAY))
+    (.setMouseTransparent true)
+    (.setManaged false)
+    (.setVisible false)
+    (jfx/add-style-class "hover-square")))
+
+
+(defn- show-hover!
+  [^Rectangle hover, {:keys [color, ^double x, ^double y] :as cell}]
+  (if cell
+    (let [offset (/ (- hover-size cell-size) 2.0)]
+      (doto hover
+        (.setFill color)
+        (.setLayoutX (- x offset))
+        (.setLayoutY (- y offset))
+        (.setVisible true)))
+    (.setVisible hover false)))
 
 
 (defn color-palette
-  [state-prop]
-  (let [
-        focused-cell-prop (props/entry-property state-prop [:focused-cell])
-        selected-color-prop (props/entry-property state-prop [:selected-color])
-        palette-box (doto (VBox.)
-                      (jfx/add-style-class "color-palette")
-                      (jfx/add-children
-                        [(color-grid focused-cell-prop, selected-color-prop, standard-colors)
-                         (color-grid focused-cell-prop, selected-color-prop, grid-colors)]))
-        hover-cell (doto (color-cell (col/to-color :white))
-                     (jfx/mouse-transparent! true)
-                     (jfx/add-style-class "hover-square")
-                     (jfx/visible! false))
-        color-palette (doto (Pane.)
-                        (jfx/add-style-class "color-palette-region")
-                        (jfx/add-child palette-box)
-                        (jfx/add-child hover-cell))]
-    (props/listen-to
-      (fn [[prev-cell], [next-cell]]
-        (when-not (identical? prev-cell, next-cell)
-          (jfx/visible! hover-cell, (some? next-cell))
-          (when next-cell
-            (fill-color-cell hover-cell, (color-of-cell next-cell))
-            (when-not (props/get-property next-cell :focused)
-              (jfx/request-focus next-cell))
-            (position color-palette, hover-cell, next-cell))))
-      focused-cell-prop)
+  "Creates the color palette. The function select-fn is called with the clicked color."
+  [select-fn]
+  (let [style-rect (style-rect)
+        canvas (palette-canvas style-rect)
+        hover (hover-rect)
+        style-square (doto (StackPane.)
+                       (jfx/add-style-class "color-square")
+                       (.setManaged false)
+                       (.setVisible false)
+                       (.setMouseTransparent true)
+                       (jfx/add-child style-rect))
+        canvas-pane (doto (Pane.)
+                      (jfx/add-style-class "color-picker-grid")
+                      (jfx/add-children [canvas, hover, style-square]))
+        cell-at (fn [^MouseEvent e] (palette-cell-at (.getX e), (.getY e)))]
+    (doto canvas
+      (jfx/handle-event! :mouse-moved
+        (fn [e] (show-hover! hover, (cell-at e))))
+      (jfx/handle-event! :mouse-exited
+        (fn [_] (show-hover! hover, nil)))
+      (jfx/handle-event! :mouse-released
+        (fn [^MouseEvent e]
+          (when (and
+                  (= (.getButton e) MouseButton/PRIMARY)
+                  (== (.getClickCount e) 1))
+            (when-let [{:keys [color]} (cell-at e)]
+              (select-fn color))))))
     ; return
-    color-palette))
+    (doto (StackPane.)
+      (jfx/add-style-class "color-palette-region")
+      (jfx/add-style-class "color-palette")
+      (jfx/padding! 5)
+      (jfx/add-child canvas-pane))))
+
+
+(defn- palette-hover
+  ^Node [^Pane palette]
+  (let [^Pane canvas-pane (first (.getChildren palette))]
+    (second (.getChildren canvas-pane))))
+
+
+; The palette is shared by all color choosers, it is attached to the color chooser whose popup is shown.
+(def ^:private ^PopupContentPool palette-pool
+  (PopupContentPool.
+    (fn create []
+      (let [palette-ref (volatile! nil)]
+        (vreset! palette-ref
+          (color-palette
+            (fn [color]
+              (when-let [^ComboBoxBase combobox (.get (.getProperties ^Node (deref palette-ref)) ::combobox)]
+                (.setValue combobox color)))))))
+    (fn attach [^Node palette, combobox]
+      (.put (.getProperties palette) ::combobox combobox))
+    (fn reset [^Node palette, _]
+      (.remove (.getProperties palette) ::combobox)
+      (.setVisible (palette-hover palette) false))))
 
 
 (defn create-skin
@@ -292,10 +359,9 @@
                          (props/property :text)
                          (props/bind
                            (props/fn-property col/color-name chosen-color-prop))))
-        color-palette (color-palette state-prop)
+        ; the palette is shared with the other color choosers and only created when a popup is shown
         skin (CustomComboBoxSkin. combobox,
-               (fn get-popup-content []
-                 color-palette)
+               palette-pool
                (fn get-display-node []
                  display-node)
                (fn compute-pref-width [height, top-inset, right-inset, bottom-inset, left-inset]
@@ -13,7 +13,9 @@
   (:import
     (javafx.scene.paint Color Paint)
     (java.lang.reflect Field Modifier)
-    (com.sun.javafx.scene.control.skin Utils)))
+    (java.util.function Function)
+    (com.sun.javafx.scene.control.skin Utils)
+    (clj_jfx.cache LRUCache)))
 
 
 
@@ -28,16 +30,47 @@
     (cond
       (string? color) color
       (instance? Color color) (let [^Color color color]
-                                (format "rgb(%d,%d,%d)"
-                                  (color-long (.getRed color)),
-                                  (color-long (.getGreen color)),
-                                  (color-long (.getBlue color))))
+                                (-> (StringBuilder. 20)
+                                  (.append "rgb(")
+                                  (.append (color-long (.getRed color)))
+                                  (.append ",")
+                                  (.append (color-long (.getGreen color)))
+                                  (.append ",")
+                                  (.append (color-long (.getBlue color)))
+                                  (.append ")")
+                                  .toString))
       :else (u/illegal-argument "Unsupported argument type: %s" (type color)))))
 
 
+; Parsed colors are interned in a bounded cache, such that repeated color specifications (e.g. in table cells)
+; neither parse the specification again nor allocate a new Color.
+(defonce ^:private ^LRUCache color-cache (LRUCache. 1024))
+
+
+(defn- cached-color
+  ^Color [key, f]
+  (.computeIfAbsent color-cache key
+    (reify Function
+      (apply [_, key]
+        (f key)))))
+
+
+(defn web-color
+  "Returns the Color of the given web color string (see Color/web) from the color cache."
+  (^Color [color-str]
+   (cached-color color-str, #(Color/web ^String %)))
+  (^Color [color-str, opacity]
+   (if (== 1.0 (double opacity))
+     (web-color color-str)
+     (cached-color [color-str, (double opacity)], (fn [[color-str, opacity]] (Color/web color-str, opacity))))))
+
+
 (defn color
   ^Color [color, ^double opacity]
-  (Color/web (color->str color), opacity))
+  (if (instance? Color color)
+    (let [^Color color color]
+      (Color/rgb (color-long (.getRed color)), (color-long (.getGreen color)), (color-long (.getBlue color)), opacity))
+    (web-color (color->str color), opacity)))
 
 
 (defn to-color
@@ -46,17 +79,101 @@
     (cond
       (instance? Paint color-spec)
       color-spec
-      (or (string? color-spec) (keyword? color-spec))
-      (Color/web (name color-spec))
+      (string? color-spec)
+      (web-color color-spec)
+      (keyword? color-spec)
+      (cached-color color-spec, #(Color/web (name %)))
       (map? color-spec)
       (let [{:keys [color, opacity]} color-spec]
-        (Color/web color, (or opacity 1.0)))
+        (web-color color, (or opacity 1.0)))
       (and (sequential? color-spec) (#{3 4} (count color-spec) ))
       (let [[red, green, blue, opacity] color-spec]
         (Color. (/ red 255.0), (/ green 255.0), (/ blue 255.0), (or opacity 1.0)))
       :else (u/illegal-argument "Unsupported argument for color specification - type: %s" (type color-spec)))))
 
 
+; Colors packed into a long as 0xAARRGGBB for computing many colors (e.g. gradients) without allocation.
+
+(defn- channel
+  ^long [^double value]
+  (Math/round (* value 255.0)))
+
+
+(defn color->argb
+  "Packs the color of the given specification (see to-color) into a long 0xAARRGGBB."
+  ^long [color-spec]
+  (let [^Color color (to-color color-spec)]
+    (bit-or
+      (bit-shift-left (channel (.getOpacity color)) 24)
+      (bit-shift-left (channel (.getRed color)) 16)
+      (bit-shift-left (channel (.getGreen color)) 8)
+      (channel (.getBlue color)))))
+
+
+(defn argb
+  "Packs the given channel values (0-255) into a long 0xAARRGGBB."
+  ^long [^long alpha, ^long red, ^long green, ^long blue]
+  (bit-or
+    (bit-shift-left (bit-and alpha 0xFF) 24)
+    (bit-shift-left (bit-and red 0xFF) 16)
+    (bit-shift-left (bit-and green 0xFF) 8)
+    (bit-and blue 0xFF)))
+
+
+(defn argb-alpha ^long [^long argb] (bit-and (unsigned-bit-shift-right argb 24) 0xFF))
+(defn argb-red ^long [^long argb] (bit-and (unsigned-bit-shift-right argb 16) 0xFF))
+(defn argb-green ^long [^long argb] (bit-and (unsigned-bit-shift-right argb 8) 0xFF))
+(defn argb-blue ^long [^long argb] (bit-and argb 0xFF))
+
+
+(defn argb->color
+  "Returns the Color of the packed color 0xAARRGGBB from the color cache."
+  ^Color [^long argb]
+  (cached-color (Long/valueOf argb),
+    (fn [^Long argb]
+      (let [argb (.longValue argb)]
+        (Color/rgb (argb-red argb), (argb-green argb), (argb-blue argb), (/ (argb-alpha argb) 255.0))))))
+
+
+(defn- interpolate-channel
+  ^long [^long from, ^long to, ^double ratio]
+  (Math/round (+ from (* (- to from) ratio))))
+
+
+(defn interpolate-argb
+  "Interpolates linearly between the packed colors (like Color/interpolate) for a ratio between 0 and 1."
+  ^long [^long from, ^long to, ^double ratio]
+  (cond
+    (<= ratio 0.0) from
+    (>= ratio 1.0) to
+    :else (argb
+            (interpolate-channel (argb-alpha from), (argb-alpha to), ratio),
+            (interpolate-channel (argb-red from), (argb-red to), ratio),
+            (interpolate-channel (argb-green from), (argb-green to), ratio),
+            (interpolate-channel (argb-blue from), (argb-blue to), ratio))))
+
+
+(defn lighter-argb
+  ^long [^long argb, ^double ratio]
+  (interpolate-argb argb, 0xFFFFFFFF, ratio))
+
+
+(defn darker-argb
+  ^long [^long argb, ^double ratio]
+  (interpolate-argb argb, 0xFF000000, ratio))
+
+
+(defn argb-gradient
+  "Returns an array of the given number of packed colors interpolated linearly from the first to the second color."
+  ^longs [from-color-spec, to-color-spec, ^long steps]
+  (let [from (color->argb from-color-spec),
+        to (color->argb to-color-spec),
+        gradient (long-array steps)]
+    (dotimes [i steps]
+      (aset gradient i (interpolate-argb from, to, (if (> steps 1) (/ (double i) (dec steps)) 0.0))))
+    gradient))
+
+
 (defn lighter
   [color-spec, ^double ratio]
   (.interpolate (to-color color-spec) Color/WHITE ratio))
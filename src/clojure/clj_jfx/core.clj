@@ -14,14 +14,16 @@
     [clj-jfx.util :as u]
     [clj-jfx.traversal :as t]
     [clj-jfx.colors :as col]
+    [clj-jfx.fxml :as fxml]
     [clojure.set :as set])
   (:import
-    javax.imageio.ImageIO
-    javafx.geometry.Rectangle2D
+    (javax.imageio ImageIO ImageWriter)
+    (javax.imageio.event IIOWriteProgressListener)
+    (javafx.geometry Rectangle2D Bounds)
     javafx.embed.swing.SwingFXUtils
     javafx.scene.paint.Color
     (javafx.application Platform Application)
-    (javafx.scene Scene Node SnapshotParameters Parent)
+    (javafx.scene Scene Node SnapshotParameters Parent Group)
     (javafx.scene.control Alert Alert$AlertType MenuItem Label Labeled Control Tooltip ContextMenu ComboBox TableColumn TableColumn$CellDataFeatures TextInputDialog TableView ButtonType CheckBox ColorPicker TitledPane TextField TextFormatter TextFormatter$Change ToolBar ListCell ListView TextInputControl ToggleGroup Toggle SeparatorMenuItem TabPane Button Hyperlink Spinner SpinnerValueFactory$IntegerSpinnerValueFactory SpinnerValueFactory$DoubleSpinnerValueFactory SpinnerValueFactory MultipleSelectionModel)
     (javafx.scene.layout Region BackgroundFill CornerRadii Background BorderStroke Border BorderStrokeStyle BorderWidths GridPane Pane VBox ColumnConstraints RowConstraints Priority HBox)
     (javafx.stage FileChooser FileChooser$ExtensionFilter Stage Modality Window WindowEvent StageStyle)
@@ -31,27 +33,32 @@
     (javafx.scene.shape Shape Circle)
     (javafx.scene.text TextAlignment Font FontWeight FontPosture TextFlow Text FontSmoothingType)
     (javafx.fxml FXMLLoader)
-    (java.util Collection List Locale)
-    (java.io File)
-    (javafx.scene.image Image)
-    (java.awt.image BufferedImage)
+    (java.util Collection List Locale Arrays)
+    (java.io File Writer StringWriter)
+    (java.nio.channels WritableByteChannel Channels)
+    (java.util.concurrent Executors Semaphore TimeUnit ExecutorService ConcurrentHashMap LinkedBlockingDeque)
+    (java.util.concurrent.atomic AtomicLong)
+    (javafx.scene.image Image WritableImage PixelFormat)
+    (javafx.scene.transform Transform)
+    (java.awt.image BufferedImage DataBufferInt)
     (javafx.beans.value ObservableValue ChangeListener WritableValue)
-    (javafx.collections ObservableList FXCollections)
+    (javafx.collections ObservableList FXCollections ListChangeListener ListChangeListener$Change)
     (javafx.beans InvalidationListener Observable)
     (javafx.beans.property Property SimpleObjectProperty)
     (java.lang.ref WeakReference)
-    (clj_jfx.table RadioButtonTableCell CheckBoxTableCell ColorPickerTableCell ComboBoxSelectionTableCell)
-    (javafx.beans.binding Bindings)
+    (clj_jfx.table RadioButtonTableCell CheckBoxTableCell ColorPickerTableCell ComboBoxSelectionTableCell KeySortedList BitSetSelectionModel)
+    (javafx.beans.binding Bindings ObjectBinding)
     (com.sun.javafx.binding ExpressionHelper)
-    (java.util.function UnaryOperator Predicate)
+    (java.util.function UnaryOperator Predicate Function)
     (java.text ParsePosition NumberFormat DecimalFormat)
     (javafx.scene.input DragEvent MouseEvent MouseDragEvent ScrollEvent MouseButton KeyEvent ClipboardContent Clipboard KeyCode)
     (javafx.css Styleable)
     (clj_jfx.list GenericListCell)
     (javafx.scene.canvas Canvas)
-    (javafx.collections.transformation FilteredList SortedList)
+    (javafx.collections.transformation FilteredList)
     (com.sun.javafx.stage StageHelper)
-    (javafx.scene.paint Paint)))
+    (javafx.scene.paint Paint ImagePattern)
+    (clj_jfx.cache LRUCache WeakIdentityCache)))
 
 
 
@@ -115,16 +122,25 @@
     (.getId ^Styleable node)))
 
 
-(defn find-node
+(defn- traverse-find-node
   [parent-node, id]
-  (t/traverse-pre-order
-    ; init: no result, combine: take new value
-    (fn ([] nil) ([result, value] value)),
-    (fn [node]
-      ; when not is found, stop and return it
+  (reduce
+    (fn [_, node]
+      ; when found, stop and return it
       (when (= (node-id node) id)
-        (t/traversed node)))
-    parent-node))
+        (reduced node)))
+    nil
+    (t/nodes parent-node)))
+
+
+(defn find-node
+  "Finds the node with the given id below the given parent node.
+  Lookups in nodes attached to a scene use the id index of the scene, detached subtrees are traversed."
+  [parent-node, id]
+  (let [parent-node (cond-> parent-node (ctrl/control? parent-node) ctrl/control-node)]
+    (if-let [[node] (t/find-indexed-node parent-node, id)]
+      node
+      (traverse-find-node parent-node, id))))
 
 
 
@@ -502,6 +518,249 @@
         (u/illegal-argument "Unsupported file format %s!" ext)))))
 
 
+(defn- opaque-image-pixels
+  "Returns the pixel array backing the raster of an image of type BufferedImage/TYPE_INT_RGB."
+  ^ints [^BufferedImage image]
+  (.getData ^DataBufferInt (.getDataBuffer (.getRaster image))))
+
+
+(defn- snapshot-tile!
+  "Renders the given tile of the node (coordinates relative to the snapshot bounds) and copies its pixels directly into
+  the raster of the target image. Returns the (possibly reallocated) tile image for reuse with the next tile.
+  Must be called on the JavaFX thread."
+  ^WritableImage [^Node node, ^SnapshotParameters params, ^Bounds bounds, ^WritableImage tile-image, ^BufferedImage target, x, y, w, h]
+  (let [x (long x), y (long y), w (long w), h (long h)]
+    (.setViewport params (Rectangle2D. (+ (.getMinX bounds) x), (+ (.getMinY bounds) y), w, h))
+    (let [tile-image (.snapshot node, params, tile-image)]
+      (.getPixels (.getPixelReader tile-image), 0, 0, (int w), (int h),
+        (PixelFormat/getIntArgbInstance),
+        (opaque-image-pixels target),
+        (int (+ (* y (.getWidth target)) x)),
+        (.getWidth target))
+      tile-image)))
+
+
+(defn- tiled-snapshot-setup
+  "Returns the snapshot parameters and the bounds of the node in snapshot coordinates.
+  Must be called on the JavaFX thread."
+  [^Node node, scale, fill]
+  (let [scale (double scale),
+        params (doto (SnapshotParameters.)
+                 (.setTransform (Transform/scale scale, scale))
+                 (.setFill fill))]
+    [params, (.transform (.getTransform params) (.getBoundsInParent node))]))
+
+
+(defn snapshot-opaque-image
+  "Renders the node tile by tile into an opaque BufferedImage (TYPE_INT_RGB) without allocating a full size snapshot.
+  Each tile is rendered in a separate JavaFX pulse such that the user interface remains responsive between tiles.
+  Hence, this function must not be called on the JavaFX thread. Returns nil if the current thread is interrupted.
+
+  Options:
+  :tile-size - maximum width and height of a tile in pixels (default 2048)
+  :scale - scale factor applied to the node (default 1.0)
+  :fill - background paint, should be opaque (default white)
+  :progress-fn - called with the number of rendered tiles and the total number of tiles"
+  ^BufferedImage [node, {:keys [tile-size, scale, fill, progress-fn], :or {tile-size 2048, scale 1.0, fill Color/WHITE}}]
+  (when (Platform/isFxApplicationThread)
+    (throw (IllegalStateException. "Tiled snapshots must not be taken from the JavaFX thread.")))
+  (let [[params, ^Bounds bounds] (run-now (tiled-snapshot-setup node, scale, fill)),
+        width (long (Math/ceil (.getWidth bounds))),
+        height (long (Math/ceil (.getHeight bounds))),
+        tile-size (long tile-size),
+        columns (quot (+ width tile-size -1) tile-size),
+        rows (quot (+ height tile-size -1) tile-size),
+        tile-count (* columns rows),
+        target (BufferedImage. (max 1 width), (max 1 height), BufferedImage/TYPE_INT_RGB)]
+    (loop [tile 0, tile-image nil]
+      (cond
+        (.isInterrupted (Thread/currentThread))
+        nil
+
+        (< tile tile-count)
+        (let [x (* (rem tile columns) tile-size),
+              y (* (quot tile columns) tile-size),
+              tile-image (run-now
+                           (snapshot-tile! node, params, bounds, tile-image, target,
+                             x, y, (min tile-size (- width x)), (min tile-size (- height y))))]
+          (when progress-fn
+            (progress-fn (inc tile), tile-count))
+          (recur (inc tile), tile-image))
+
+        :else
+        target))))
+
+
+(defn write-image
+  "Encodes the image in the given format to the file and reports the encoding progress in percent to the progress-fn.
+  Aborts when the current thread is interrupted."
+  ([image, file, image-type]
+   (write-image image, file, image-type, nil))
+  ([^BufferedImage image, file, ^String image-type, progress-fn]
+   (let [^ImageWriter writer (or (first (iterator-seq (ImageIO/getImageWritersByFormatName image-type)))
+                               (u/illegal-argument "Unsupported file format %s!" image-type)),
+         file (io/file file)]
+     ; like ImageIO/write, replace an existing file since the output stream does not truncate it
+     (.delete file)
+     (with-open [out (ImageIO/createImageOutputStream file)]
+       (try
+         (.setOutput writer out)
+         (.addIIOWriteProgressListener writer
+           (reify IIOWriteProgressListener
+             (imageStarted [_, _, _])
+             (imageProgress [_, writer, percentage]
+               (if (.isInterrupted (Thread/currentThread))
+                 (.abort ^ImageWriter writer)
+                 (when progress-fn
+                   (progress-fn percentage))))
+             (imageComplete [_, _])
+             (thumbnailStarted [_, _, _, _])
+             (thumbnailProgress [_, _, _])
+             (thumbnailComplete [_, _])
+             (writeAborted [_, _])))
+         (.write writer image)
+         (finally
+           (.dispose writer))))
+     file)))
+
+
+(defn export-node-tiled
+  "Exports the node to the given image file in a background thread and returns a future of the file
+  (nil when cancelled via future-cancel).
+  The node is rendered tile by tile (see snapshot-opaque-image) directly into a single opaque raster which is then
+  encoded on the background thread. The node should not be modified during the export.
+
+  Supports the options of snapshot-opaque-image except :progress-fn which is replaced by
+  :progress-fn - called on the export thread with the stage (:snapshot or :encoding), the progress and its maximum"
+  ([node, file]
+   (export-node-tiled node, file, nil))
+  ([^Node node, file, {:keys [progress-fn] :as options}]
+   (let [ext (u/file-extension file)]
+     (when-not (contains? supported-extensions ext)
+       (u/illegal-argument "Unsupported file format %s!" ext))
+     (future
+       (try
+         (when-let [image (snapshot-opaque-image node,
+                            (cond-> options
+                              progress-fn (assoc :progress-fn (fn [tiles, total] (progress-fn :snapshot, tiles, total)))))]
+           (write-image image, file, ext, (when progress-fn (fn [percentage] (progress-fn :encoding, percentage, 100.0))))
+           (if (.isInterrupted (Thread/currentThread))
+             ; remove the incomplete image file
+             (do
+               (.delete (io/file file))
+               nil)
+             file))
+         (catch InterruptedException _
+           nil)
+         (catch Throwable t
+           (u/log-exception "Node export failed." t)
+           (throw t)))))))
+
+
+(defn- fx-image->opaque-image
+  "Copies the pixels of the JavaFX image directly into the raster of an opaque BufferedImage (TYPE_INT_RGB)."
+  ^BufferedImage [^Image image]
+  (let [width (int (.getWidth image)),
+        height (int (.getHeight image)),
+        target (BufferedImage. width, height, BufferedImage/TYPE_INT_RGB)]
+    (.getPixels (.getPixelReader image), 0, 0, width, height, (PixelFormat/getIntArgbInstance), (opaque-image-pixels target), 0, width)
+    target))
+
+
+(defn- default-render-node
+  [item]
+  (if (instance? Node item)
+    item
+    (item)))
+
+
+(defn- snapshot-batch
+  "Creates the nodes of the batch items and takes their snapshots. Failures are logged and returned as throwables.
+  Must be called on the JavaFX thread."
+  [batch, node-fn, ^SnapshotParameters params]
+  (mapv
+    (fn [item]
+      (execute-safe "render-images",
+        (fn []
+          (let [^Node node (node-fn item)]
+            (.snapshot node, params, nil)))))
+    batch))
+
+
+(defn render-images
+  "Renders images of the given items to files in a background thread and returns a future of the vector of the
+  written files in the order of the items (nil for items that failed, the failures are logged). Cancel via future-cancel.
+  Batches of items are snapshot in a single JavaFX thread task each, while the pixel conversion and encoding of the
+  snapshots runs on a pool of encoder threads. At most :queue-size snapshots are waiting for or being encoded at a time,
+  such that the snapshots do not outpace the encoding.
+  The nodes are created in the :node-fn on the JavaFX thread. Since every snapshot is taken right after its node was
+  created, the :node-fn may also update and return the same node (e.g. a chart) for all items.
+
+  Options:
+  :file-fn - required, returns the target file for an item and its index
+  :node-fn - returns the node for an item (default: items are nodes or functions without arguments returning a node)
+  :format - image format (default: determined by the file extension)
+  :scale - scale factor applied to the nodes (default 1.0)
+  :fill - background paint of the snapshots (default white)
+  :batch-size - number of snapshots taken per JavaFX thread task (default 8)
+  :encoder-threads - number of encoder threads (default: number of processors minus one)
+  :queue-size - maximum number of pending snapshots (default: twice the number of encoder threads, at least :batch-size)
+  :progress-fn - called on the encoder threads with the number of finished items and the total number of items"
+  [items, {image-format :format, :keys [file-fn, node-fn, scale, fill, batch-size, encoder-threads, queue-size, progress-fn]
+           :or {node-fn default-render-node, scale 1.0, fill Color/WHITE, batch-size 8}}]
+  (when-not file-fn
+    (u/illegal-argument "A :file-fn must be specified to render images."))
+  (let [items (vec items),
+        total (count items),
+        batch-size (max 1 (long batch-size)),
+        encoder-threads (max 1 (long (or encoder-threads (dec (.availableProcessors (Runtime/getRuntime)))))),
+        permits (Semaphore. (max batch-size (long (or queue-size (* 2 encoder-threads))))),
+        params (doto (SnapshotParameters.)
+                 (.setTransform (Transform/scale (double scale), (double scale)))
+                 (.setFill fill)),
+        results (object-array total),
+        finished (AtomicLong.),
+        item-finished (fn []
+                        (.release permits)
+                        (let [n (.incrementAndGet finished)]
+                          (when progress-fn
+                            (progress-fn n, total))))]
+    (future
+      (let [executor (Executors/newFixedThreadPool encoder-threads, (u/daemon-thread-factory "clj-jfx-image-encoder"))]
+        (try
+          (loop [start 0]
+            (when (< start total)
+              (let [end (min total (+ start batch-size))]
+                ; wait until the encoders have capacity for the whole batch
+                (.acquire permits (- end start))
+                (u/for-each-indexed!
+                  (fn [i, image]
+                    (let [index (+ start (long i))]
+                      (if (instance? Throwable image)
+                        (item-finished)
+                        (.execute executor
+                          (fn []
+                            (try
+                              (let [item (nth items index),
+                                    file (io/file (file-fn item, index))]
+                                (write-image (fx-image->opaque-image image), file, (or image-format (u/file-extension file)))
+                                (aset results index file))
+                              (catch Throwable t
+                                (u/log-exception (format "Failed to encode image of item %d." index) t))
+                              (finally
+                                (item-finished))))))))
+                  (run-now (snapshot-batch (subvec items start end), node-fn, params)))
+                (recur end))))
+          (.shutdown executor)
+          (.awaitTermination executor, Long/MAX_VALUE, TimeUnit/MILLISECONDS)
+          (vec results)
+          (catch InterruptedException _
+            nil)
+          (finally
+            (.shutdownNow executor)))))))
+
+
+
 (defn setup-event-handling!
   [^Node node, event-handler-map]
   (reduce-kv
@@ -510,6 +769,39 @@
     event-handler-map))
 
 
+; Insets, CornerRadii, BorderWidths, backgrounds and borders are immutable.
+; They are cached by their specification, such that e.g. table cells updating their background
+; share the same instances instead of creating new ones on every update.
+(defonce ^:private ^LRUCache layout-value-cache (LRUCache. 2048))
+
+
+(defn- cached-layout-value
+  [type, spec, create-fn]
+  (.computeIfAbsent layout-value-cache [type, spec]
+    (reify Function
+      (apply [_, _]
+        (create-fn spec)))))
+
+
+(defn- create-insets
+  ^Insets [insets-spec]
+  (cond
+    (number? insets-spec)
+    (Insets. insets-spec)
+
+    (sequential? insets-spec)
+    (if (= (count insets-spec) 4)
+      (let [[top, right, bottom, left] insets-spec]
+        (Insets. top, right, bottom, left))
+      (u/illegal-argument "Inset values for all 4 borders must be given in the insets specification!"))
+
+    (map? insets-spec)
+    (let [{:keys [top, right, bottom, left]} insets-spec]
+      (Insets. (or top 0.0), (or right 0.0), (or bottom 0.0), (or left 0.0)))
+
+    :else (u/illegal-argument "Unsupported argument for insets specification - type: %s" (type insets-spec))))
+
+
 (defn insets
   ^Insets [insets-spec]
   (when insets-spec
@@ -520,20 +812,35 @@
       (= insets-spec :empty)
       Insets/EMPTY
 
-      (number? insets-spec)
-      (Insets. insets-spec)
+      :else
+      (cached-layout-value ::insets, insets-spec, create-insets))))
 
-      (sequential? insets-spec)
-      (if (= (count insets-spec) 4)
-        (let [[top, right, bottom, left] insets-spec]
-          (Insets. top, right, bottom, left))
-        (u/illegal-argument "Inset values for all 4 borders must be given in the insets specification!"))
 
-      (map? insets-spec)
-      (let [{:keys [top, right, bottom, left]} insets-spec]
-        (Insets. (or top 0.0), (or right 0.0), (or bottom 0.0), (or left 0.0)))
+(defn- create-corner-radii
+  ^CornerRadii [radii-spec]
+  (cond
+    (number? radii-spec)
+    (CornerRadii. radii-spec)
 
-      :else (u/illegal-argument "Unsupported argument for insets specification - type: %s" (type insets-spec)))))
+    (sequential? radii-spec)
+    (cond
+      (#{4 5} (count radii-spec))
+      (let [[top, right, bottom, left, percent?] radii-spec]
+        (CornerRadii. (or top 0.0), (or right 0.0), (or bottom 0.0), (or left 0.0), (boolean percent?)))
+
+      (= (count radii-spec) 16)
+      (let [[a, b, c, d, e, f, g, h] (mapv #(or % 0.0) (take 8 radii-spec))
+            [a?, b?, c?, d?, e?, f?, g?, h?] (mapv boolean (take 8 (concat (drop 8 radii-spec) (repeat nil))))]
+        (CornerRadii. a, b, c, d, e, f, g, h, a?, b?, c?, d?, e?, f?, g?, h?))
+
+      :else
+      (u/illegal-argument "Radii values for all 4 corners must be given in the radii specification!"))
+
+    (map? radii-spec)
+    (let [{:keys [top, right, bottom, left, percent?]} radii-spec]
+      (CornerRadii. (or top 0.0), (or right 0.0), (or bottom 0.0), (or left 0.0), (boolean percent?)))
+
+    :else (u/illegal-argument "Unsupported argument for radii specification - type: %s" (type radii-spec))))
 
 
 (defn corner-radii
@@ -546,31 +853,11 @@
       (= radii-spec :empty)
       CornerRadii/EMPTY
 
-      (number? radii-spec)
-      (CornerRadii. radii-spec)
-
-      (sequential? radii-spec)
-      (cond
-        (#{4 5} (count radii-spec))
-        (let [[top, right, bottom, left, percent?] radii-spec]
-          (CornerRadii. (or top 0.0), (or right 0.0), (or bottom 0.0), (or left 0.0), (boolean percent?)))
-
-        (= (count radii-spec) 16)
-        (let [[a, b, c, d, e, f, g, h] (mapv #(or % 0.0) (take 8 radii-spec))
-              [a?, b?, c?, d?, e?, f?, g?, h?] (mapv boolean (take 8 (concat (drop 8 radii-spec) (repeat nil))))]
-          (CornerRadii. a, b, c, d, e, f, g, h, a?, b?, c?, d?, e?, f?, g?, h?))
-
-        :else
-        (u/illegal-argument "Radii values for all 4 corners must be given in the radii specification!"))
-
-      (map? radii-spec)
-      (let [{:keys [top, right, bottom, left, percent?]} radii-spec]
-        (CornerRadii. (or top 0.0), (or right 0.0), (or bottom 0.0), (or left 0.0), (boolean percent?)))
-
-      :else (u/illegal-argument "Unsupported argument for radii specification - type: %s" (type radii-spec)))))
+      :else
+      (cached-layout-value ::corner-radii, radii-spec, create-corner-radii))))
 
 
-(defn background-fill
+(defn- create-background-fill
   [{:keys [color, radii, insets]}]
   (BackgroundFill.
     (col/to-color color),
@@ -578,14 +865,31 @@
     (clj-jfx.core/insets insets)))
 
 
-(defn background
-  "Creates a background using the specified fills and images."
+(defn background-fill
+  [{:keys [color] :as background-fill-spec}]
+  ; do not pin images in the cache
+  (if (instance? ImagePattern color)
+    (create-background-fill background-fill-spec)
+    (cached-layout-value ::background-fill, background-fill-spec, create-background-fill)))
+
+
+(defn- create-background
   [{:keys [fills, images]}]
   (Background.
     ^List (mapv background-fill fills),
     ^List images))
 
 
+(defn background
+  "Creates a background using the specified fills and images.
+  Backgrounds without images are cached by their specification, i.e. equal specifications return the same instance."
+  [{:keys [images] :as background-spec}]
+  ; do not pin images in the cache
+  (if (seq images)
+    (create-background background-spec)
+    (cached-layout-value ::background, background-spec, create-background)))
+
+
 (defn corner-radii-vec
   [^CornerRadii radii]
   (when radii
@@ -633,7 +937,9 @@
   (doto region
     (.setBackground
       (when color
-        (Background. ^"[Ljavafx.scene.layout.BackgroundFill;" (into-array [(BackgroundFill. (col/to-color color), CornerRadii/EMPTY, Insets/EMPTY)]))))))
+        (cached-layout-value ::background-color, color,
+          (fn [color]
+            (Background. ^"[Ljavafx.scene.layout.BackgroundFill;" (into-array [(BackgroundFill. (col/to-color color), CornerRadii/EMPTY, Insets/EMPTY)]))))))))
 
 
 (defn label-text!
@@ -675,42 +981,52 @@
       :else (u/illegal-argument "Unsupported argument for border-stroke - type: %s" (type stroke)))))
 
 
+(defn- create-border-corner-radii
+  ^CornerRadii [radii-spec]
+  (cond
+    (number? radii-spec)
+    (CornerRadii. radii-spec)
+    (sequential? radii-spec)
+    (if (= (count radii-spec) 4)
+      (let [[top-left, top-right, bottom-right, bottom-left] radii-spec]
+        (CornerRadii. top-left, top-right, bottom-right, bottom-left, false))
+      (u/illegal-argument "Radius values for all 4 borders must be given in the border corner radii specification!"))
+    (map? radii-spec)
+    (let [{:keys [top-left, top-right, bottom-right, bottom-left]} radii-spec]
+      (CornerRadii. (or top-left 0.0), (or top-right 0.0), (or bottom-right 0.0), (or bottom-left 0.0), false))
+    :else (u/illegal-argument "Unsupported argument for border corner radii specification - type: %s" (type radii-spec))))
+
+
 (defn border-corner-radii
   ^CornerRadii [radii-spec]
   (when radii-spec
-    (cond
-      (instance? CornerRadii radii-spec)
+    (if (instance? CornerRadii radii-spec)
       radii-spec
-      (number? radii-spec)
-      (CornerRadii. radii-spec)
-      (sequential? radii-spec)
-      (if (= (count radii-spec) 4)
-        (let [[top-left, top-right, bottom-right, bottom-left] radii-spec]
-          (CornerRadii. top-left, top-right, bottom-right, bottom-left, false))
-        (u/illegal-argument "Radius values for all 4 borders must be given in the border corner radii specification!"))
-      (map? radii-spec)
-      (let [{:keys [top-left, top-right, bottom-right, bottom-left]} radii-spec]
-        (CornerRadii. (or top-left 0.0), (or top-right 0.0), (or bottom-right 0.0), (or bottom-left 0.0), false))
-      :else (u/illegal-argument "Unsupported argument for border corner radii specification - type: %s" (type radii-spec)))))
+      (cached-layout-value ::border-corner-radii, radii-spec, create-border-corner-radii))))
+
+
+(defn- create-border-widths
+  ^BorderWidths [widths-spec]
+  (cond
+    (number? widths-spec)
+    (BorderWidths. widths-spec)
+    (sequential? widths-spec)
+    (if (= (count widths-spec) 4)
+      (let [[top, right, bottom, left] widths-spec]
+        (BorderWidths. top, right, bottom, left))
+      (u/illegal-argument "Border width values for all 4 borders must be given in the border widths specification!"))
+    (map? widths-spec)
+    (let [{:keys [top, right, bottom, left]} widths-spec]
+      (BorderWidths. (or top 0.0), (or right 0.0), (or bottom 0.0), (or left 0.0)))
+    :else (u/illegal-argument "Unsupported argument for border widths specification - type: %s" (type widths-spec))))
 
 
 (defn border-widths
   ^BorderWidths [widths-spec]
   (when widths-spec
-    (cond
-      (instance? BorderWidths widths-spec)
+    (if (instance? BorderWidths widths-spec)
       widths-spec
-      (number? widths-spec)
-      (BorderWidths. widths-spec)
-      (sequential? widths-spec)
-      (if (= (count widths-spec) 4)
-        (let [[top, right, bottom, left] widths-spec]
-          (BorderWidths. top, right, bottom, left))
-        (u/illegal-argument "Border width values for all 4 borders must be given in the border widths specification!"))
-      (map? widths-spec)
-      (let [{:keys [top, right, bottom, left]} widths-spec]
-        (BorderWidths. (or top 0.0), (or right 0.0), (or bottom 0.0), (or left 0.0)))
-      :else (u/illegal-argument "Unsupported argument for border widths specification - type: %s" (type widths-spec)))))
+      (cached-layout-value ::border-widths, widths-spec, create-border-widths))))
 
 
 (defn region-border!
@@ -719,10 +1035,13 @@
   widths: single width value OR vector [top, right, bottom, left] OR map {:keys [top, right, bottom, left]}
   corner-radii: single value OR vector [top-left, top-right, bottom-right, bottom-left] OR map {:keys [top-left, top-right, bottom-right, bottom-left]}
   stroke: one of :solid, :dashed, :dotted, :none"
-  [^Region region, {:keys [color, widths, stroke, corner-radii]}]
-  (let [bstroke (BorderStroke. (col/to-color color), (border-stroke stroke), (border-corner-radii corner-radii), (border-widths widths))]
-    (doto region
-      (.setBorder (Border. ^"[Ljavafx.scene.layout.BorderStroke;" (into-array [bstroke]))))))
+  [^Region region, border-spec]
+  (doto region
+    (.setBorder
+      (cached-layout-value ::border, border-spec,
+        (fn [{:keys [color, widths, stroke, corner-radii]}]
+          (let [bstroke (BorderStroke. (col/to-color color), (border-stroke stroke), (border-corner-radii corner-radii), (border-widths widths))]
+            (Border. ^"[Ljavafx.scene.layout.BorderStroke;" (into-array [bstroke]))))))))
 
 
 (defn padding!
@@ -839,13 +1158,52 @@
       :italic FontPosture/ITALIC)))
 
 
+; Fonts are immutable and are created repeatedly with the same parameters (e.g. in list cells and text flows).
+(defonce ^:private ^LRUCache font-cache (LRUCache. 512))
+
+
+(defn cached-font
+  "Returns the font with the given family, weight, posture and size (as Font/font) from a bounded cache.
+  Unspecified weight, posture and size (nil) are normalized to the defaults of Font/font."
+  ^Font [family, weight, posture, size]
+  (let [weight (or weight FontWeight/NORMAL),
+        posture (or posture FontPosture/REGULAR),
+        size (if size (double size) -1.0)]
+    (.computeIfAbsent font-cache [family, weight, posture, size]
+      (reify Function
+        (apply [_, _]
+          (Font/font ^String family, ^FontWeight weight, ^FontPosture posture, (double size)))))))
+
+
+(defn font-cache-statistics
+  "Returns the size and the hit statistics of the font cache."
+  []
+  (let [hits (.getHits font-cache),
+        misses (.getMisses font-cache),
+        total (+ hits misses)]
+    {:size (.size font-cache),
+     :capacity (.getCapacity font-cache),
+     :hits hits,
+     :misses misses,
+     :evictions (.getEvictions font-cache),
+     :hit-rate (if (pos? total) (/ (double hits) total) 0.0)}))
+
+
+(defn clear-font-cache!
+  []
+  (doto font-cache
+    (.clear)
+    (.resetStatistics))
+  nil)
+
+
 (defn font
   [font-map-or-font]
   (when font-map-or-font
     (if (instance? Font font-map-or-font)
       font-map-or-font
       (let [{:keys [family, weight, posture, size]} font-map-or-font]
-        (Font/font family, (font-weight weight), (font-posture posture), (or size -1))))))
+        (cached-font family, (font-weight weight), (font-posture posture), size)))))
 
 
 (defn font-map
@@ -2025,7 +2383,10 @@
     (into (sorted-set))))
 
 
-(defn find-child-nodes
+(def ^:private cached-ids-in-fxml (memoize find-ids-in-fxml))
+
+
+(defn- traverse-find-child-nodes
   [parent-node]
   ; parent node overwrites children with same id
   (t/traverse-post-order
@@ -2047,15 +2408,29 @@
     parent-node))
 
 
+(defn find-child-nodes
+  "Returns a map from id (keyword) to node of all nodes below the given parent node.
+  For scenes and stages the id index of the scene is used, other nodes are traversed."
+  [parent-node]
+  (or
+    (t/indexed-child-nodes parent-node)
+    (traverse-find-child-nodes parent-node)))
+
+
 (defn create-control
+  "Creates the control described by the given FXML resource.
+  The FXML is compiled once into a builder function (see clj-jfx.fxml), such that creating the control
+  does not parse the FXML again. FXML files with features that the compiler does not support are loaded via FXMLLoader."
   [fxml-filename]
-  (let [control (load-control fxml-filename),
-        children-ids (find-ids-in-fxml fxml-filename),
-        children-map (find-child-nodes control),
-        missing-ids (set/difference children-ids (set (keys children-map)))]
-    (when (seq missing-ids)
-      (u/println-err (format "create-control: When creating \"%s\" the child controls with the following ids were not found: %s" fxml-filename (str/join ", " (map name missing-ids)))))
-    (ctrl/create control, children-map)))
+  (if-let [builder (fxml/cached-builder fxml-filename)]
+    (builder)
+    (let [control (load-control fxml-filename),
+          children-ids (cached-ids-in-fxml fxml-filename),
+          children-map (find-child-nodes control),
+          missing-ids (set/difference children-ids (set (keys children-map)))]
+      (when (seq missing-ids)
+        (u/println-err (format "create-control: When creating \"%s\" the child controls with the following ids were not found: %s" fxml-filename (str/join ", " (map name missing-ids)))))
+      (ctrl/create control, children-map))))
 
 
 (defn control-node
@@ -2068,6 +2443,113 @@
   (ctrl/control-children control))
 
 
+; Pools of controls created from FXML resources.
+; Dialogs that are opened repeatedly acquire a prebuilt control instead of creating the node tree on the FX thread.
+; The controls are built on a background thread (JavaFX allows creating nodes outside of the FX thread
+; as long as they are not attached to a live scene) and are reused after a reset when they are released.
+
+(defonce ^:private ^ExecutorService control-builder
+  (Executors/newSingleThreadExecutor (u/daemon-thread-factory "clj-jfx-control-builder")))
+
+
+(defonce ^:private ^ConcurrentHashMap control-pools (ConcurrentHashMap.))
+
+
+(defn control-pool
+  "Returns the pool of controls of the given FXML resource. The pool is created on the first call,
+  the options are only used then.
+  Options:
+    :size - number of controls to keep prebuilt (default: 1)
+    :reset-fn - (fn [control] ...) that prepares a released control for reuse and returns true on success.
+                Without reset function released controls are discarded and replaced by newly built ones."
+  [fxml-filename & {:keys [size, reset-fn]}]
+  (.computeIfAbsent control-pools fxml-filename
+    (reify Function
+      (apply [_, fxml-filename]
+        {:fxml-filename fxml-filename,
+         :size (long (or size 1)),
+         :reset-fn reset-fn,
+         :idle (LinkedBlockingDeque.),
+         :pending (AtomicLong.),
+         :in-use (AtomicLong.)}))))
+
+
+(defn- build-pooled-control
+  [fxml-filename]
+  (try
+    (create-control fxml-filename)
+    (catch Throwable _
+      ; some controls (e.g. with popup windows) might not support creation outside of the FX thread
+      (run-now (create-control fxml-filename)))))
+
+
+(defn- refill-control-pool!
+  [{:keys [fxml-filename, ^long size, ^LinkedBlockingDeque idle, ^AtomicLong pending, ^AtomicLong in-use] :as pool}]
+  (loop []
+    (let [building (.get pending)]
+      ; reusable controls that are in use will return to the pool
+      (when (< (+ building (.size idle) (.get in-use)) size)
+        (when (.compareAndSet pending building (inc building))
+          (.execute control-builder
+            (fn []
+              (try
+                (.offerLast idle (build-pooled-control fxml-filename))
+                (catch Throwable t
+                  (u/log-exception (format "Failed to build control from \"%s\"" fxml-filename), t))
+                (finally
+                  (.decrementAndGet pending))))))
+        (recur))))
+  pool)
+
+
+(defn prebuild-controls!
+  "Starts building the controls of the pool of the given FXML resource in the background
+  (see control-pool for the options), e.g. during application startup such that the first dialog opens immediately."
+  [fxml-filename & options]
+  (refill-control-pool! (apply control-pool fxml-filename, options))
+  nil)
+
+
+(defn acquire-control
+  "Returns a control of the given FXML resource from its pool (see control-pool for the options).
+  When no prebuilt control is available, the control is created on the calling thread.
+  The pool is refilled in the background unless the control will be reused after its release."
+  [fxml-filename & options]
+  (let [{:keys [reset-fn, ^LinkedBlockingDeque idle, ^AtomicLong in-use] :as pool} (apply control-pool fxml-filename, options),
+        control (or (.pollFirst idle) (create-control fxml-filename))]
+    (when reset-fn
+      (.incrementAndGet in-use))
+    (refill-control-pool! pool)
+    control))
+
+
+(defn- detach-node!
+  [^Node node]
+  (let [parent (.getParent node)]
+    (when (instance? Pane parent)
+      (.remove (.getChildren ^Pane parent) node)))
+  (when-let [scene (.getScene node)]
+    (when (identical? node (.getRoot scene))
+      ; a node can only be the root of one scene
+      (.setRoot scene (Group.))))
+  node)
+
+
+(defn release-control
+  "Returns a control acquired via acquire-control to the pool of the given FXML resource.
+  The control is detached from its scene and reused if the reset function of the pool succeeds.
+  Must be called on the FX thread when the control was shown."
+  [fxml-filename, control]
+  (let [{:keys [^long size, reset-fn, ^LinkedBlockingDeque idle, ^AtomicLong in-use] :as pool} (control-pool fxml-filename)]
+    (detach-node! (control-node control))
+    (when reset-fn
+      (.decrementAndGet in-use)
+      (when (and (< (.size idle) size) (reset-fn control))
+        (.offerFirst idle control)))
+    (refill-control-pool! pool)
+    nil))
+
+
 (defn combobox-cell-factory!
   ([combobox, converter]
    (combobox-cell-factory! combobox, converter, nil))
@@ -2500,16 +2982,35 @@
     observable-list))
 
 
+(defn cell-value-cache
+  "Creates a cache for derived cell value properties of a column. The cache holds rows and properties weakly,
+  such that each derived property is created once per row and reused while it is in use."
+  ^WeakIdentityCache []
+  (WeakIdentityCache.))
+
+
+(defn cached-cell-value
+  "Returns the cell value of the given row from the cache or creates it via (create-fn row)."
+  [^WeakIdentityCache cache, row, create-fn]
+  (.computeIfAbsent cache row
+    (reify Function
+      (apply [_, row]
+        (create-fn row)))))
+
+
 (defn column-cell-value-factory!
   [^TableColumn column, column-key, value-fn]
-  (doto column
-    (.setCellValueFactory
-      (reify Callback
-        (call [this, cdf]
-          (let [prop (get-in (.getValue ^TableColumn$CellDataFeatures cdf) [:column-properties, column-key])]
-            (if value-fn
-              (functional-property value-fn prop)
-              prop)))))))
+  (let [cache (when value-fn (cell-value-cache))]
+    (doto column
+      (.setCellValueFactory
+        (reify Callback
+          (call [this, cdf]
+            (let [row (.getValue ^TableColumn$CellDataFeatures cdf)]
+              (if value-fn
+                (cached-cell-value cache, row,
+                  (fn [row]
+                    (functional-property value-fn (get-in row [:column-properties, column-key]))))
+                (get-in row [:column-properties, column-key])))))))))
 
 
 (defn column-cell-factory!
@@ -2584,14 +3085,33 @@
 
 (defn setup-sorting
   [^ObservableList table-model, ^TableView table-view]
-  (let [sorted-model (SortedList. table-model)]
+  (let [sorted-model (doto (KeySortedList. table-model, nil)
+                       (.setNaturalComparator u/universal-compare))]
     ; set Clojure compare as default comparator
     (doseq [^TableColumn column (.getColumns table-view)]
       (property-value! column, :comparator, u/universal-compare))
-    (bind (property sorted-model, :comparator) (property table-view, :comparator))
+    ; sort by keys extracted once per sort instead of via TableColumnComparator
+    (.setSortPolicy table-view
+      (callback [table-view]
+        (.sortBy sorted-model (.getSortOrder ^TableView table-view))
+        true))
     sorted-model))
 
 
+(defn bitset-selection-model!
+  "Replaces the selection model of the table view by a BitSetSelectionModel (keeping the selection mode)
+  unless cell selection is enabled, which the BitSetSelectionModel does not support."
+  ^TableView [^TableView table-view]
+  (let [old-model (.getSelectionModel table-view)]
+    (when-not (or
+                (instance? BitSetSelectionModel old-model)
+                (some-> old-model .isCellSelectionEnabled))
+      (.setSelectionModel table-view
+        (doto (BitSetSelectionModel. table-view)
+          (cond-> old-model (.setSelectionMode (.getSelectionMode old-model)))))))
+  table-view)
+
+
 (defn setup-table-view!
   ^TableView [^TableView table-view, column-key-paths, data-ref, & {:keys [placeholder, column-cell-factories, column-cell-value-fns, filter-text-property, sort?, data-prefix]}]
   (let [model (cond-> (table-model column-key-paths, data-ref, data-prefix)
@@ -2614,6 +3134,7 @@
               (column-cell-factory! column, model, cell-factory))))
         (.getColumns table-view)))
     (doto table-view
+      bitset-selection-model!
       (.setItems model)
       (cond-> placeholder (.setPlaceholder (Label. placeholder))))))
 
@@ -2647,26 +3168,161 @@
     (property-value! :comparator, comparator)))
 
 
+(defn table-row-map
+  "Creates a map of the current values of the columns of the given table model row."
+  [{:keys [column-properties]}]
+  (persistent!
+    (reduce-kv
+      (fn [row-map, k, prop]
+        (assoc! row-map (cond-> k (sequential? k) last) (value prop)))
+      (transient {})
+      column-properties)))
+
+
+(defn table-row-data-ref
+  [{:keys [column-properties]}]
+  (let [prop (some-> column-properties first val)]
+    (when (instance? PropertyInRef prop)
+      (.data-ref ^PropertyInRef prop))))
+
+
+(def ^:private ^:const max-pending-selection-changes 64)
+
+
+(defn selection-change-ops
+  "Records the change ranges of the selected items as operations that can be applied later on.
+  The added rows are not copied but read from the selected items when the operations are applied,
+  hence only the operations of the latest change are kept. Returns nil when the row maps need to be rebuilt."
+  [ops, ^ListChangeListener$Change change]
+  ; the ranges of an earlier change do not refer to the current selected items
+  (loop [ops (when (and ops (empty? ops)) ops)]
+    (if (and ops (.next change))
+      (recur
+        (when (< (count ops) max-pending-selection-changes)
+          (let [from (.getFrom change)
+                to (.getTo change)]
+            (conj ops
+              (if (.wasPermutated change)
+                [:permute, from, (mapv #(.getPermutation change (int %)) (range from to))]
+                [:replace, from, (.getRemovedSize change), to])))))
+      ops)))
+
+
+(defn apply-selection-op
+  "Applies the operation to the row maps. The added rows are read from the given selected items."
+  [^List selected-items, row-maps, [op, from & args]]
+  (case op
+    :permute (let [[permutation] args
+                   segment (subvec row-maps from (+ from (count permutation)))]
+               (persistent!
+                 (reduce-kv
+                   (fn [row-maps, i, target]
+                     (assoc! row-maps target (nth segment i)))
+                   (transient row-maps)
+                   permutation)))
+    :replace (let [[removed-count, to] args
+                   added-rows (.subList selected-items from to)
+                   n (count row-maps)]
+               (if (== (+ from removed-count) n)
+                 ; change at the end
+                 (into (loop [row-maps row-maps, k removed-count]
+                         (if (pos? k)
+                           (recur (pop row-maps), (dec k))
+                           row-maps))
+                   (map table-row-map)
+                   added-rows)
+                 (-> (into [] (subvec row-maps 0 from))
+                   (into (map table-row-map) added-rows)
+                   (into (subvec row-maps (+ from removed-count))))))))
+
+
+(defn watch-data-ref!
+  "Invalidates the binding when the data in the given ref changes.
+  Only one data ref is watched per binding, the watch on the previously watched data ref is removed."
+  [^ObjectBinding binding, watched-data-ref, data-ref]
+  (let [previous-data-ref (deref watched-data-ref)
+        key [::selected-rows (System/identityHashCode binding)]]
+    (when-not (identical? previous-data-ref data-ref)
+      (some-> previous-data-ref (remove-watch key))
+      (reset! watched-data-ref data-ref)
+      (when data-ref
+        (let [binding-ref (WeakReference. binding)]
+          (add-watch data-ref key
+            (fn [key, ref, old-state, new-state]
+              (if-let [^ObjectBinding binding (.get binding-ref)]
+                (when-not (identical? old-state new-state)
+                  (.invalidate binding))
+                (remove-watch ref, key)))))))))
+
+
+(defn selected-rows-binding
+  [^TableView table-view]
+  (let [; ops nil means that the row maps need to be rebuilt
+        initial-state {:row-maps [], :ops nil, :data-state nil}
+        state (volatile! initial-state)
+        watched-data-ref (atom nil)
+        binding (proxy [ObjectBinding] []
+                  (computeValue []
+                    (let [{:keys [row-maps, ops, data-state]} @state
+                          selected-items (some-> table-view .getSelectionModel .getSelectedItems)
+                          data-ref (some-> selected-items first table-row-data-ref)
+                          current-data-state (some-> data-ref deref)
+                          row-maps (cond
+                                     (nil? selected-items) []
+                                     ; data or selection model changed
+                                     (or (nil? ops) (not (identical? data-state current-data-state)))
+                                     (mapv table-row-map selected-items)
+                                     :else (reduce (partial apply-selection-op selected-items) row-maps ops))]
+                      ; the row maps contain the values of the rows, hence data changes need to invalidate the binding
+                      (watch-data-ref! this, watched-data-ref, data-ref)
+                      (vreset! state {:row-maps row-maps, :ops [], :data-state current-data-state})
+                      row-maps))
+                  (dispose []
+                    ; release the data of the rows, the binding rebuilds the row maps when it is used again
+                    (watch-data-ref! this, watched-data-ref, nil)
+                    (vreset! state initial-state)
+                    (.invalidate ^ObjectBinding this)))
+        selection-listener (reify ListChangeListener
+                             (onChanged [_, change]
+                               (vswap! state update :ops selection-change-ops change)
+                               (.invalidate ^ObjectBinding binding)))
+        set-selection-model (fn [^MultipleSelectionModel old-model, ^MultipleSelectionModel new-model]
+                              (some-> old-model .getSelectedItems (.removeListener selection-listener))
+                              (some-> new-model .getSelectedItems (.addListener selection-listener))
+                              (vswap! state assoc :ops nil)
+                              (.invalidate ^ObjectBinding binding))]
+    (set-selection-model nil, (.getSelectionModel table-view))
+    (change-listener! (.selectionModelProperty table-view)
+      (fn [_, old-model, new-model]
+        (set-selection-model old-model, new-model)))
+    binding))
+
+
 (defn selected-rows-property
+  "Returns a property containing maps of the values of the selected rows.
+  The property is created once per table view and updated lazily from the change ranges of the selection."
   [^TableView table-view]
-  (let [selection-model (.getSelectionModel table-view)]
-    (functional-property
-      (fn [rows]
-        (mapv
-          (fn [{:keys [column-properties]}]
-            (persistent!
-              (reduce-kv
-                (fn [row-map, k, prop]
-                  (assoc! row-map (cond-> k (sequential? k) last) (value prop)))
-                (transient {})
-                column-properties)))
-          rows))
-      (.getSelectedItems selection-model))))
+  (let [properties (.getProperties table-view)]
+    (or
+      (.get properties ::selected-rows-property)
+      (let [binding (selected-rows-binding table-view)]
+        (.put properties ::selected-rows-property binding)
+        binding))))
+
+
+(defn release-selected-rows-property!
+  "Releases the data referenced by the selected rows property of the table view (if any),
+  e.g. before the table view is reused for different data."
+  [^TableView table-view]
+  (some-> table-view .getProperties ^ObjectBinding (.get ::selected-rows-property) .dispose)
+  table-view)
 
 
 (defn selected-row
   [^TableView table-view]
-  (-> table-view selected-rows-property value first))
+  (let [^List selected-items (some-> table-view .getSelectionModel .getSelectedItems)]
+    (when-not (or (nil? selected-items) (.isEmpty selected-items))
+      (table-row-map (.get selected-items 0)))))
 
 
 (defn table-columns!
@@ -2852,16 +3508,35 @@
     (.requestFocus)))
 
 
+(def ^:private table-selection-dialog "clj_jfx/TableSelectionDialog.fxml")
+
+
+(defn- reset-table-selection-dialog
+  [control]
+  (let [{:keys [^TableView entity-tableview]} (control-children control)]
+    (-> entity-tableview .getSortOrder .clear)
+    (-> entity-tableview .getSelectionModel .clearSelection)
+    (.setItems entity-tableview (FXCollections/observableArrayList))
+    (release-selected-rows-property! entity-tableview)
+    true))
+
+
+(control-pool table-selection-dialog, :reset-fn reset-table-selection-dialog)
+
+
 (defn select-entity-from-table
   [entity+info-coll, {:keys [title, description, entity-name, info-name, select-first?, inspect]}]
   (run-now
-    (let [control (create-control "clj_jfx/TableSelectionDialog.fxml"),
+    (let [control (acquire-control table-selection-dialog),
           control-node (control-node control),
           {:keys [entity-tableview,
                   ^Label
                   description-label,
+                  ^Button
                   select-button,
+                  ^Button
                   cancel-button,
+                  ^Button
                   inspect-button] :as children} (control-children control)
           window (modal-window (or title "Select"), control-node),
           result-data (atom nil),
@@ -2878,23 +3553,32 @@
       (when select-first?
         (select-first! entity-tableview))
 
-      (if inspect
-        (handle-event! inspect-button, :action
+      ; the action handlers are set (not added) since the control is reused
+      (doto inspect-button
+        (.setVisible (boolean inspect))
+        (.setManaged (boolean inspect))
+        (.setOnAction
+          (when inspect
+            (event-handler
+              (fn [_]
+                (inspect (value selected-entity-prop)))))))
+
+      (.setOnAction select-button
+        (event-handler
           (fn [_]
-            (inspect (value selected-entity-prop))))
-        (remove-children (parent inspect-button), inspect-button))
-
-      (handle-event! select-button, :action
-        (fn [_]
-          (reset! result-data (value selected-entity-prop))
-          (close window)))
+            (reset! result-data (value selected-entity-prop))
+            (close window))))
 
-      (handle-event! cancel-button, :action
-        (fn [_]
-          (close window)))
+      (.setOnAction cancel-button
+        (event-handler
+          (fn [_]
+            (close window))))
 
-      (show-and-wait window)
-      (deref result-data))))
+      (try
+        (show-and-wait window)
+        (deref result-data)
+        (finally
+          (release-control table-selection-dialog, control))))))
 
 
 (let [host-services (.getHostServices (proxy [Application] []))]
@@ -2924,23 +3608,189 @@
 
 
 
+(def ^:private export-separators
+  {:tsv \tab, :csv \,})
+
+
+(defn- needs-quoting?
+  [^String s, ^long separator]
+  (let [n (.length s)]
+    (loop [i 0]
+      (if (< i n)
+        (let [c (int (.charAt s i))]
+          (if (or (== c separator) (== c 34) (== c 10) (== c 13))
+            true
+            (recur (unchecked-inc i))))
+        false))))
+
+
+(defn- write-export-field!
+  [^Writer writer, value, ^long separator]
+  (when-not (nil? value)
+    (let [s (str value)]
+      (if (needs-quoting? s, separator)
+        (doto writer
+          (.write (int 34))
+          (.write (str/replace s "\"" "\"\""))
+          (.write (int 34)))
+        (.write writer s)))))
+
+
+(defn- write-export-row!
+  [^Writer writer, ^objects values, offset, column-count, separator]
+  (loop [j 0]
+    (when (< j (long column-count))
+      (when (pos? j)
+        (.write writer (int separator)))
+      (write-export-field! writer, (aget values (+ (long offset) j)), separator)
+      (recur (unchecked-inc j)))))
+
+
+(defn- export-writer
+  "Returns a pair of the writer for the given target and whether the export owns (and thus closes) that writer."
+  [target]
+  (cond
+    (instance? Writer target) [target, false]
+    (instance? WritableByteChannel target) [(Channels/newWriter ^WritableByteChannel target, "UTF-8"), false]
+    :else [(io/writer target, :encoding "UTF-8"), true]))
+
+
+(defn- export-rows
+  "Returns an array of the row items in the current order of the table (respecting sorting and filtering)."
+  ^objects [^TableView tableview, rows]
+  (let [items (.getItems tableview)]
+    (cond
+      (= rows :all) (.toArray items)
+      (= rows :selected) (let [indices (.toArray (.getSelectedIndices (.getSelectionModel tableview)))]
+                           (Arrays/sort indices)
+                           (object-array (map #(.get items (int %)) indices)))
+      (coll? rows) (object-array (map #(.get items (int %)) rows))
+      :else (u/illegal-argument "Unsupported rows specification %s! Use :all, :selected or a collection of row indices." rows))))
+
+
+(defn- export-columns
+  [^TableView tableview, columns]
+  (cond
+    (= columns :all) (vec (.getColumns tableview))
+    (= columns :visible) (vec (.getVisibleLeafColumns tableview))
+    (coll? columns) (vec columns)
+    :else (u/illegal-argument "Unsupported columns specification %s! Use :all, :visible or a collection of columns." columns)))
+
+
+(defn- export-cell-data
+  "Returns the cell data of the given row item.
+  Unlike TableColumn.getCellData(item) this does not need to look up the row index of the item."
+  [^TableView tableview, ^TableColumn column, item]
+  (when-let [^Callback factory (.getCellValueFactory column)]
+    (when-let [^ObservableValue value (.call factory (TableColumn$CellDataFeatures. tableview, column, item))]
+      (.getValue value))))
+
+
+(defn- read-export-chunk
+  "Reads the cell data of the given rows on the JavaFX thread into a row-major array."
+  ^objects [tableview, columns, ^objects items, start, end]
+  (run-now
+    (let [start (long start),
+          end (long end),
+          column-count (count columns),
+          values (object-array (* (- end start) column-count))]
+      (loop [i start, offset 0]
+        (when (< i end)
+          (let [item (aget items i)]
+            (u/for-each-indexed!
+              (fn [j, column]
+                (aset values (+ offset (long j)) (export-cell-data tableview, column, item)))
+              columns)
+            (recur (unchecked-inc i), (+ offset column-count)))))
+      values)))
+
+
+(defn export-table
+  "Exports the rows of the given table view to the target in a background thread and returns a future of the number
+  of exported rows (nil when cancelled).
+  The target can be a java.io.Writer or a WritableByteChannel (both remain open) or anything accepted by io/writer.
+  The rows are exported in the current order of the table, i.e. respecting sorting and filtering.
+  The cell data is read in chunks on the JavaFX thread and written as TSV or CSV on the export thread.
+  Hence, do not block the JavaFX thread on the returned future. Cancel the export via future-cancel.
+
+  Options:
+  :format - :tsv (default) or :csv
+  :rows - :all (default), :selected or a collection of row indices
+  :columns - :all (default), :visible (leaf columns) or a collection of table columns
+  :header? - write the column names as first line (default true)
+  :chunk-size - number of rows read from the table at once (default 1000)
+  :progress-fn - called on the export thread with the number of exported rows and the total number of rows
+  :done-fn - called on the export thread with the number of exported rows when the export completed"
+  ([tableview, target]
+   (export-table tableview, target, nil))
+  ([^TableView tableview, target, {:keys [format, rows, columns, header?, chunk-size, progress-fn, done-fn]
+                                   :or {format :tsv, rows :all, columns :all, header? true, chunk-size 1000}}]
+   (let [separator (long (or (get export-separators format)
+                           (u/illegal-argument "Unsupported export format %s! Use :tsv or :csv." format))),
+         chunk-size (max 1 (long chunk-size)),
+         [columns, items] (run-now [(export-columns tableview, columns), (export-rows tableview, rows)]),
+         column-count (count columns),
+         total (alength ^objects items)]
+     (future
+       (let [[^Writer writer, own-writer?] (export-writer target)]
+         (try
+           (when header?
+             (write-export-row! writer, (object-array (map #(.getText ^TableColumn %) columns)), 0, column-count, separator))
+           (loop [start 0]
+             (cond
+               (.isInterrupted (Thread/currentThread))
+               nil
+
+               (< start total)
+               (let [end (min total (+ start chunk-size)),
+                     values (read-export-chunk tableview, columns, items, start, end)]
+                 (loop [i 0, offset 0]
+                   (when (< i (- end start))
+                     (when (or header? (pos? (+ start i)))
+                       (.write writer, "\n"))
+                     (write-export-row! writer, values, offset, column-count, separator)
+                     (recur (unchecked-inc i), (+ offset column-count))))
+                 (when progress-fn
+                   (progress-fn end, total))
+                 (recur end))
+
+               :else
+               (do
+                 (.flush writer)
+                 (when done-fn
+                   (done-fn total))
+                 total)))
+           (catch InterruptedException _
+             nil)
+           (catch Throwable t
+             (u/log-exception "Table export failed." t)
+             (throw t))
+           (finally
+             (when own-writer?
+               (.close writer)))))))))
+
+
+(defn copy-table-rows-to-clipboard
+  "Exports the specified rows of the table view to the system clipboard in a background thread.
+  Supports the same options as export-table and returns its future."
+  ([tableview]
+   (copy-table-rows-to-clipboard tableview, nil))
+  ([tableview, options]
+   (let [writer (StringWriter.)]
+     (export-table tableview, writer,
+       (assoc options
+         :done-fn (fn [n]
+                    (run-later
+                      (.setContent (Clipboard/getSystemClipboard)
+                        (doto (ClipboardContent.)
+                          (.putString (.toString writer)))))
+                    (when-let [done-fn (:done-fn options)]
+                      (done-fn n))))))))
+
+
 (defn copy-selected-table-rows-to-clipboard
   [^TableView tableview]
-  (let [selected-rows (vec (sort (.getSelectedIndices (.getSelectionModel tableview)))),
-        row-data (->> (.getColumns tableview)
-                   (mapv (fn [^TableColumn col]
-                           (list*
-                             ; column name
-                             (.getText col)
-                             ; column values
-                             (mapv
-                               (fn [row-index]
-                                 (.getCellData col (int row-index)))
-                               selected-rows))))
-                   (apply mapv vector)),
-        content (doto (ClipboardContent.)
-                  (.putString (->> row-data (mapv #(str/join "\t" %)) (str/join "\n"))))]
-    (.setContent (Clipboard/getSystemClipboard) content)))
+  (copy-table-rows-to-clipboard tableview, {:rows :selected}))
 
 
 (defn enable-copy-to-clipboard!
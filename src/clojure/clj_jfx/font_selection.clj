@@ -10,25 +10,38 @@
   (:require
     [clj-jfx.core :as jfx]
     [clj-jfx.control :as ctrl]
-    [clojure.string :as str])
+    [clj-jfx.util :as u]
+    [clojure.string :as str]
+    [clojure.java.io :as io]
+    [clojure.edn :as edn])
   (:import (javafx.scene.text Font FontPosture FontWeight)
            (com.sun.javafx.font.freetype FTFontFile)
            (com.sun.javafx.font PrismFontFactory)
-           (javafx.scene.control ListCell ListView Label)))
+           (javafx.scene.control ListCell ListView Label Button)
+           (javafx.collections FXCollections)
+           (javafx.beans.property Property)
+           (java.io File)))
 
 
 
+(defn true-type-font-file
+  "Returns the TrueType font file of the given font family or nil if the family is not a TrueType font."
+  [font-name-fn, font-family]
+  (some->> (jfx/font {:family font-family})
+    font-name-fn
+    (re-matches #".*\.ttf")))
+
+
 (defn true-type-font?
   [font-name-fn, font-family]
-  (boolean
-    (some->> (jfx/font {:family font-family})
-      font-name-fn
-      (re-matches #".*\.ttf"))))
+  (boolean (true-type-font-file font-name-fn, font-family)))
 
 
 (defn font-filename
   [font-map, ^Font font]
-  (when-let [^FTFontFile font (get font-map (str/lower-case (.getName font)))]
+  ; the font factory modifies its font map while creating fonts (on any thread) and synchronizes on itself
+  (when-let [^FTFontFile font (locking (PrismFontFactory/getFontFactory)
+                                (get font-map (str/lower-case (.getName font))))]
     (.getFileName font)))
 
 
@@ -39,12 +52,137 @@
     (.get field (PrismFontFactory/getFontFactory))))
 
 
+(defn compute-true-type-font-metadata
+  "Determines the installed TrueType font families and their font files.
+  Creates a font for every installed family, which takes seconds on systems with many fonts."
+  []
+  (let [font-name-fn (partial font-filename (font-map))]
+    (->> (Font/getFamilies)
+      sort
+      (keep
+        (fn [font-family]
+          (when-let [file (true-type-font-file font-name-fn, font-family)]
+            {:family font-family, :file file})))
+      vec)))
+
+
+; The font metadata is cached on disk and is valid as long as the font directories are unchanged
+; (installing or removing fonts changes the modification time of the containing directory).
+
+(defn font-cache-file
+  "Returns the file of the font metadata cache (can be changed via the system property \"clj-jfx.font-cache\")."
+  ^File []
+  (io/file
+    (or
+      (System/getProperty "clj-jfx.font-cache")
+      (io/file (System/getProperty "user.home") ".clj-jfx" "font-families.edn"))))
+
+
+(defn font-directories
+  "Returns the existing font directories of the operating system and the user."
+  []
+  (let [home (System/getProperty "user.home"),
+        os (str/lower-case (System/getProperty "os.name"))]
+    (->> (cond
+           (str/includes? os "win") [(io/file (or (System/getenv "WINDIR") "C:\\Windows") "Fonts"),
+                                     (io/file (or (System/getenv "LOCALAPPDATA") "") "Microsoft" "Windows" "Fonts")]
+           (str/includes? os "mac") [(io/file "/System/Library/Fonts"),
+                                     (io/file "/Library/Fonts"),
+                                     (io/file home "Library" "Fonts")]
+           :else [(io/file "/usr/share/fonts"),
+                  (io/file "/usr/local/share/fonts"),
+                  (io/file home ".fonts"),
+                  (io/file home ".local" "share" "fonts")])
+      (filterv #(.isDirectory ^File %)))))
+
+
+(defn- directory-modification-times
+  [directories]
+  (into (sorted-map)
+    (for [directory directories,
+          ^File file (tree-seq #(.isDirectory ^File %) #(.listFiles ^File %) directory)
+          :when (.isDirectory file)]
+      [(.getPath file) (.lastModified file)])))
+
+
+(defn- font-cache-key
+  []
+  {:java-version (System/getProperty "java.version"),
+   :javafx-version (System/getProperty "javafx.runtime.version"),
+   :directories (directory-modification-times (font-directories))})
+
+
+(defn- read-font-cache
+  [key]
+  (let [file (font-cache-file)]
+    (when (.isFile file)
+      (try
+        (let [cache (edn/read-string (slurp file :encoding "UTF-8"))]
+          (when (= key (:key cache))
+            (:fonts cache)))
+        (catch Exception e
+          (u/log-exception (format "Failed to read the font cache \"%s\"." (.getPath file)), e))))))
+
+
+(defn- write-font-cache
+  [key, fonts]
+  (let [file (font-cache-file),
+        tmp-file (io/file (str (.getPath file) ".tmp"))]
+    (try
+      (io/make-parents file)
+      (spit tmp-file (pr-str {:key key, :fonts fonts}) :encoding "UTF-8")
+      (.delete file)
+      (.renameTo tmp-file file)
+      (catch Exception e
+        (u/log-exception (format "Failed to write the font cache \"%s\"." (.getPath file)), e)))))
+
+
+(defn- load-true-type-font-metadata
+  []
+  (let [key (font-cache-key)]
+    (or
+      (read-font-cache key)
+      (let [fonts (compute-true-type-font-metadata)]
+        (write-font-cache key, fonts)
+        fonts))))
+
+
+(defonce ^:private true-type-font-metadata-delay (atom nil))
+
+
+(defn true-type-font-metadata-future
+  "Returns a future of the metadata ({:family ..., :file ...}) of the installed TrueType font families.
+  The metadata is loaded once in the background from the disk cache or computed and cached when the fonts changed.
+  Call this early (e.g. as startup task) such that the font selection dialog opens immediately."
+  []
+  (force
+    (swap! true-type-font-metadata-delay
+      (fn [metadata-delay]
+        (or metadata-delay
+          (let [self (promise)
+                metadata-delay (delay
+                                 (future
+                                   (try
+                                     (load-true-type-font-metadata)
+                                     (catch Throwable t
+                                       ; do not cache the failure, the next call tries again
+                                       (compare-and-set! true-type-font-metadata-delay @self nil)
+                                       (throw t)))))]
+            (deliver self metadata-delay)
+            metadata-delay))))))
+
+
+(defn clear-true-type-font-metadata!
+  "Clears the in-memory and the disk cache of the TrueType font metadata."
+  []
+  (reset! true-type-font-metadata-delay nil)
+  (.delete (font-cache-file))
+  nil)
+
+
 (defn true-type-font-families
   []
-  (->> (Font/getFamilies)
-    (filter (partial true-type-font? (partial font-filename (font-map))))
-    sort
-    vec))
+  (mapv :family (deref (true-type-font-metadata-future))))
 
 
 (defn default-true-type-font
@@ -54,7 +192,7 @@
 
 (defn set-item-font
   [^ListCell list-cell, item, empty]
-  (.setFont list-cell (Font/font ^String item)))
+  (.setFont list-cell (jfx/cached-font item, nil, nil, nil)))
 
 
 (defn bind-selected-item
@@ -110,7 +248,7 @@
   [{:keys [selected-family, selected-style, selected-size]}]
   (when (and selected-family selected-style selected-size)
     (let [{:keys [weight, posture]} (weight+posture selected-style)]
-      (Font/font selected-family, weight, posture, (double selected-size)))))
+      (jfx/cached-font selected-family, weight, posture, selected-size))))
 
 
 (defn update-sample-lable-font
@@ -126,16 +264,33 @@
     (jfx/font-map font-or-map)))
 
 
+(def ^:private font-selection-dialog "clj_jfx/FontSelectionDialog.fxml")
+
+
+(defn- reset-font-selection-dialog
+  [control]
+  (let [{:keys [font-listview, style-listview, size-listview]} (ctrl/control-children control)]
+    (doseq [^ListView listview [font-listview, style-listview, size-listview]]
+      (-> listview .getSelectionModel .clearSelection)
+      (.setItems listview (FXCollections/observableArrayList)))
+    true))
+
+
+(jfx/control-pool font-selection-dialog, :reset-fn reset-font-selection-dialog)
+
+
 (defn select-font
   [{:keys [initial-font, title]}]
   (jfx/run-now
-    (let [select-font-control (jfx/create-control "clj_jfx/FontSelectionDialog.fxml")
+    (let [select-font-control (jfx/acquire-control font-selection-dialog)
           select-font-node (ctrl/control-node select-font-control),
           {:keys [font-listview,
                   style-listview,
                   size-listview,
                   sample-label,
+                  ^Button
                   select-button,
+                  ^Button
                   cancel-button] :as children} (ctrl/control-children select-font-control),
           font-data-atom (atom {:family-list (true-type-font-families),
                                 :style-list nil
@@ -149,8 +304,8 @@
           size-list-prop   (jfx/map-entry-property font-data-atom :size-list)
           selected-family-prop (bind-selected-item font-listview, family-list-prop, (jfx/map-entry-property font-data-atom, :selected-family)),
           style-list-prop (jfx/bind style-list-prop (jfx/functional-property font-styles, selected-family-prop))
-          _ (bind-selected-item style-listview, style-list-prop, (jfx/map-entry-property font-data-atom, :selected-style)),
-          _ (bind-selected-item size-listview, size-list-prop, (jfx/map-entry-property font-data-atom, :selected-size))
+          selected-style-prop (bind-selected-item style-listview, style-list-prop, (jfx/map-entry-property font-data-atom, :selected-style)),
+          selected-size-prop (bind-selected-item size-listview, size-list-prop, (jfx/map-entry-property font-data-atom, :selected-size))
           window (jfx/modal-window (or title "Select font") select-font-node)]
       ; list view items
       (jfx/setup-listview! font-listview, (jfx/property->observable-list family-list-prop),
@@ -161,14 +316,16 @@
       (add-watch font-data-atom :update-sample-lable
         (fn [_, _, _, new-state]
           (update-sample-lable-font (jfx/property ^Label sample-label, :font), new-state)))
-      ; buttons
-      (jfx/handle-event! cancel-button :action
-        (fn [_]
-          (jfx/close window)))
-      (jfx/handle-event! select-button :action
-        (fn [_]
-          (reset! result-atom (some-> (deref font-data-atom) find-font))
-          (jfx/close window)))
+      ; buttons (handlers are set instead of added since the control is reused)
+      (.setOnAction cancel-button
+        (jfx/event-handler
+          (fn [_]
+            (jfx/close window))))
+      (.setOnAction select-button
+        (jfx/event-handler
+          (fn [_]
+            (reset! result-atom (some-> (deref font-data-atom) find-font))
+            (jfx/close window))))
       ; select first style
       (jfx/change-listener! style-list-prop
         (fn [_, _, style-list]
@@ -183,5 +340,12 @@
             (jfx/select-item! font-listview, (or family (:family default-font)))
             (jfx/select-item! style-listview, (or style (map->font-style default-font)))
             (jfx/select-item! size-listview, (long (or size (:size default-font)))))))
-      (jfx/show-and-wait window)
-      (deref result-atom))))
\ No newline at end of file
+      (try
+        (jfx/show-and-wait window)
+        (deref result-atom)
+        (finally
+          ; disconnect this dialog's state from the list views before the control is reused
+          (remove-watch font-data-atom :update-sample-lable)
+          (doseq [^Property prop [selected-family-prop, style-list-prop, selected-style-prop, selected-size-prop]]
+            (.unbind prop))
+          (jfx/release-control font-selection-dialog, select-font-control))))))
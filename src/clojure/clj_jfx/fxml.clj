@@ -0,0 +1,522 @@
+; Copyright (c) Gunnar Völkel. All rights reserved.
+; The use and distribution terms for this software are covered by the
+; Eclipse Public License 2.0 (http://www.eclipse.org/legal/epl-v20.html)
+; which can be found in the file LICENSE at the root of this distribution.
+; By using this software in any fashion, you are agreeing to be bound by
+; the terms of this license.
+; You must not remove this notice, or any other, from this software.
+
+(ns clj-jfx.fxml
+  (:require
+    [clojure.java.io :as io]
+    [clojure.string :as str]
+    [clj-jfx.control :as ctrl]
+    [clj-jfx.util :as u])
+  (:import
+    (javax.xml.parsers DocumentBuilderFactory)
+    (org.w3c.dom Document Element NamedNodeMap ProcessingInstruction Attr)
+    (java.lang.reflect Method Constructor Modifier)
+    (java.util List)
+    (java.util.concurrent ConcurrentHashMap)
+    (java.util.function Function)
+    (javafx.beans NamedArg DefaultProperty)
+    (javafx.scene.paint Color)
+    (clojure.lang RT)))
+
+
+; Compiles FXML resources into Clojure functions that create the described node tree.
+; The XML is parsed and all classes, constructors and setters are resolved once at compile time,
+; such that the resulting builder neither parses XML nor uses reflection.
+; Supported are instance elements, attributes (with coercion of the values), static properties,
+; property elements (setters and read-only lists), default properties, @NamedArg constructors,
+; fx:id, fx:constant and fx:value. Everything else (e.g. fx:include, fx:define, controllers, scripts,
+; event handlers, variable or resource references) is reported as unsupported.
+
+
+(def ^:private fx-namespace "http://javafx.com/fxml/1")
+(def ^:private xmlns-namespace "http://www.w3.org/2000/xmlns/")
+
+
+(defn- unsupported
+  [fmt, & args]
+  (throw (ex-info (apply format fmt args) {:type ::unsupported})))
+
+
+(defn unsupported?
+  "Returns true if the given exception signals an FXML feature that the compiler does not support."
+  [e]
+  (= ::unsupported (:type (ex-data e))))
+
+
+(defn- parse-document
+  ^Document [url]
+  (let [factory (doto (DocumentBuilderFactory/newInstance)
+                  (.setNamespaceAware true))]
+    (with-open [in (io/input-stream url)]
+      (.parse (.newDocumentBuilder factory) in))))
+
+
+(defn- document-imports
+  [^Document document]
+  (let [nodes (.getChildNodes document)]
+    (into []
+      (keep
+        (fn [i]
+          (let [node (.item nodes (int i))]
+            (when (and (instance? ProcessingInstruction node) (= "import" (.getTarget ^ProcessingInstruction node)))
+              (str/trim (.getData ^ProcessingInstruction node))))))
+      (range (.getLength nodes)))))
+
+
+(defn- find-class
+  ^Class [class-name]
+  (try
+    (Class/forName class-name, false, (RT/baseLoader))
+    (catch ClassNotFoundException _
+      nil)))
+
+
+(defn- resolve-class
+  ^Class [imports, ^String class-name]
+  (or
+    (when (Character/isLowerCase (.charAt class-name 0))
+      (find-class class-name))
+    (some
+      (fn [^String import]
+        (if (.endsWith import ".*")
+          (find-class (str (subs import 0 (dec (count import))) class-name))
+          (when (.endsWith import (str "." class-name))
+            (find-class import))))
+      imports)
+    (unsupported "Class %s not found." class-name)))
+
+
+(defn- child-elements
+  [^Element element]
+  (let [nodes (.getChildNodes element)]
+    (into []
+      (keep
+        (fn [i]
+          (let [node (.item nodes (int i))]
+            (case (int (.getNodeType node))
+              1 node
+              (3 4) (when-not (str/blank? (.getNodeValue node))
+                      (unsupported "Text content \"%s\" in element %s is not supported." (str/trim (.getNodeValue node)) (.getTagName element)))
+              nil))))
+      (range (.getLength nodes)))))
+
+
+(defn- element-text
+  [^Element element]
+  (str/trim (.getTextContent element)))
+
+
+(defn- attributes
+  [^Element element]
+  (let [^NamedNodeMap attrs (.getAttributes element)]
+    (mapv
+      (fn [i]
+        (let [^Attr attr (.item attrs (int i))]
+          {:namespace (.getNamespaceURI attr),
+           :name (or (.getLocalName attr) (.getName attr)),
+           :value (.getValue attr)}))
+      (range (.getLength attrs)))))
+
+
+(defn- fx-element?
+  [^Element element]
+  (= fx-namespace (.getNamespaceURI element)))
+
+
+(defn- capitalize
+  [^String s]
+  (str (Character/toUpperCase (.charAt s 0)) (subs s 1)))
+
+
+(defn- class-symbol
+  [^Class c]
+  (symbol (.getName c)))
+
+
+(defn- public-methods
+  [^Class c, method-name, parameter-count, static?]
+  (filterv
+    (fn [^Method m]
+      (and
+        (= method-name (.getName m))
+        (== parameter-count (.getParameterCount m))
+        (= static? (Modifier/isStatic (.getModifiers m)))))
+    (.getMethods c)))
+
+
+(defn- getter
+  ^Method [^Class c, property]
+  (or
+    (first (public-methods c, (str "get" (capitalize property)), 0, false))
+    (first (public-methods c, (str "is" (capitalize property)), 0, false))))
+
+
+(defn- setters
+  "Returns the setters of the property, the one matching the getter type first."
+  [^Class c, property]
+  (let [setters (public-methods c, (str "set" (capitalize property)), 1, false),
+        property-type (some-> (getter c, property) .getReturnType)]
+    (sort-by
+      (fn [^Method m] (if (= property-type (aget (.getParameterTypes m) 0)) 0 1))
+      setters)))
+
+
+(defn- list-getter
+  ^Method [^Class c, property]
+  (when-let [m (getter c, property)]
+    (when (.isAssignableFrom List (.getReturnType m))
+      m)))
+
+
+; coercion of attribute values
+
+(defn- double-form
+  [^String value]
+  (let [d (try
+            (Double/parseDouble value)
+            (catch NumberFormatException _
+              (unsupported "Cannot convert \"%s\" to a number." value)))]
+    (cond
+      (Double/isNaN d) `Double/NaN
+      (== d Double/POSITIVE_INFINITY) `Double/POSITIVE_INFINITY
+      (== d Double/NEGATIVE_INFINITY) `Double/NEGATIVE_INFINITY
+      :else d)))
+
+
+(defn- long-form
+  [^String value]
+  (try
+    (Long/parseLong value)
+    (catch NumberFormatException _
+      (unsupported "Cannot convert \"%s\" to an integer." value))))
+
+
+(defn- enum-constant
+  [^Class c, ^String value]
+  (let [names (set (map #(.name ^Enum %) (.getEnumConstants c)))]
+    (or
+      (names value)
+      (names (str/upper-case value))
+      ; camel case to upper snake case
+      (names (str/upper-case (str/replace value #"([a-z])([A-Z])" "$1_$2")))
+      (unsupported "%s is no constant of enum %s." value (.getName c)))))
+
+
+(defn- value-of-method
+  ^Method [^Class c]
+  (some
+    (fn [^Method m]
+      (when (and (= String (aget (.getParameterTypes m) 0)) (.isAssignableFrom c (.getReturnType m)))
+        m))
+    (public-methods c, "valueOf", 1, true)))
+
+
+(defn- coerce-form
+  "Returns a form that creates the value of the given type from the string."
+  [^String value, ^Class c]
+  (cond
+    (or (= c String) (= c Object) (= c CharSequence)) value
+    (= c Double/TYPE) `(double ~(double-form value))
+    (or (= c Double) (= c Number)) `(Double/valueOf (double ~(double-form value)))
+    (= c Float/TYPE) `(float ~(double-form value))
+    (= c Float) `(Float/valueOf (float ~(double-form value)))
+    (= c Integer/TYPE) `(int ~(long-form value))
+    (= c Integer) `(Integer/valueOf (int ~(long-form value)))
+    (= c Long/TYPE) `(long ~(long-form value))
+    (= c Long) `(Long/valueOf (long ~(long-form value)))
+    (= c Short/TYPE) `(short ~(long-form value))
+    (= c Short) `(Short/valueOf (short ~(long-form value)))
+    (= c Byte/TYPE) `(byte ~(long-form value))
+    (= c Byte) `(Byte/valueOf (byte ~(long-form value)))
+    (or (= c Boolean/TYPE) (= c Boolean)) (Boolean/parseBoolean value)
+    (or (= c Character/TYPE) (= c Character)) (if (== 1 (count value))
+                                                 (.charAt value 0)
+                                                 (unsupported "Cannot convert \"%s\" to a character." value))
+    (.isEnum c) (symbol (.getName c) (enum-constant c, value))
+    (.isAssignableFrom c Color) `(Color/web ~value)
+    (value-of-method c) `(. ~(class-symbol c) ~'valueOf ~value)
+    :else (unsupported "Cannot convert \"%s\" to %s." value (.getName c))))
+
+
+(defn- attribute-value
+  "Returns the literal value of the attribute. References to variables, resources and locations are not supported.
+  (Event handler references fail later since strings cannot be coerced to event handlers.)"
+  [^String value]
+  (cond
+    (.startsWith value "\\") (subs value 1)
+    (some #(.startsWith value ^String %) ["$", "%", "@"]) (unsupported "Attribute value \"%s\" is not supported." value)
+    :else value))
+
+
+; code generation
+
+(defn- new-symbol
+  [{:keys [counter]}, ^Class c]
+  (with-meta (symbol (str "node" (vswap! counter inc))) {:tag (class-symbol c)}))
+
+
+(defn- emit!
+  [{:keys [bindings]}, sym, form]
+  (vswap! bindings conj sym form))
+
+
+(defn- emit-call!
+  [ctx, form]
+  (emit! ctx, '_, form))
+
+
+(defn- emit-setter!
+  [ctx, sym, ^Class c, property, value-fn]
+  (if-let [setters (seq (setters c, property))]
+    (let [value-form (some
+                       (fn [^Method m]
+                         (try
+                           [(value-fn (aget (.getParameterTypes m) 0))]
+                           (catch Exception e
+                             (when-not (unsupported? e)
+                               (throw e)))))
+                       setters)]
+      (if value-form
+        (emit-call! ctx, `(. ~sym ~(symbol (str "set" (capitalize property))) ~(first value-form)))
+        (unsupported "Property %s of %s cannot be set." property (.getName c))))
+    (unsupported "Property %s of %s has no setter." property (.getName c))))
+
+
+(defn- emit-static-setter!
+  [{:keys [imports] :as ctx}, sym, ^String static-property, value-fn]
+  (let [index (.lastIndexOf static-property "."),
+        c (resolve-class imports, (subs static-property 0 index)),
+        property (subs static-property (inc index)),
+        method-name (str "set" (capitalize property)),
+        ^Method setter (or (first (public-methods c, method-name, 2, true))
+                         (unsupported "Static property %s not found." static-property))]
+    (emit-call! ctx, `(. ~(class-symbol c) ~(symbol method-name) ~sym ~(value-fn (aget (.getParameterTypes setter) 1))))))
+
+
+(defn- emit-list-additions!
+  [ctx, sym, ^Method list-getter, value-forms]
+  (when (seq value-forms)
+    (emit-call! ctx, `(.addAll ~(with-meta `(. ~sym ~(symbol (.getName list-getter))) {:tag `List}) ~(vec value-forms)))))
+
+
+(defn- static-property-name?
+  [^String name]
+  (and (Character/isUpperCase (.charAt name 0)) (pos? (.indexOf name "."))))
+
+
+(defn- emit-attribute!
+  [ctx, sym, ^Class c, {:keys [name, value]}]
+  (let [value (attribute-value value)]
+    (if (static-property-name? name)
+      (emit-static-setter! ctx, sym, name, (partial coerce-form value))
+      (if (and (empty? (setters c, name)) (list-getter c, name))
+        ; read-only list of strings, e.g. styleClass="a, b"
+        (emit-list-additions! ctx, sym, (list-getter c, name), (mapv str/trim (str/split value #",")))
+        (emit-setter! ctx, sym, c, name, (partial coerce-form value))))))
+
+
+(declare compile-instance)
+
+
+(defn- emit-property-element!
+  [ctx, sym, ^Class c, property, ^Element element]
+  (let [children (child-elements element)]
+    (cond
+      (static-property-name? property)
+      (if (== 1 (count children))
+        (let [child (compile-instance ctx, (first children))]
+          (emit-static-setter! ctx, sym, property, (constantly child)))
+        (unsupported "Static property element %s must contain exactly one element." property))
+
+      (and (empty? (setters c, property)) (list-getter c, property))
+      (emit-list-additions! ctx, sym, (list-getter c, property), (mapv #(compile-instance ctx, %) children))
+
+      (empty? children)
+      (emit-setter! ctx, sym, c, property, (partial coerce-form (element-text element)))
+
+      (== 1 (count children))
+      (let [child (compile-instance ctx, (first children))]
+        (emit-setter! ctx, sym, c, property, (constantly child)))
+
+      :else
+      (unsupported "Property element %s of %s contains multiple elements." property (.getName c)))))
+
+
+(defn- default-property
+  [^Class c]
+  (if-let [^DefaultProperty annotation (.getAnnotation c DefaultProperty)]
+    (.value annotation)
+    (unsupported "Class %s has no default property." (.getName c))))
+
+
+(defn- emit-children!
+  [ctx, sym, ^Class c, ^Element element]
+  (let [property-element? (fn [^Element child]
+                            (let [tag (.getTagName child)]
+                              (or (Character/isLowerCase (.charAt tag 0)) (static-property-name? tag))))]
+    (loop [children (child-elements element)]
+      (when (seq children)
+        (let [^Element child (first children)]
+          (cond
+            (fx-element? child)
+            (unsupported "Element %s is not supported." (.getTagName child))
+
+            (property-element? child)
+            (do
+              (emit-property-element! ctx, sym, c, (.getTagName child), child)
+              (recur (rest children)))
+
+            :else
+            ; consecutive instance elements belong to the default property
+            (let [[defaults, remaining] (split-with (complement property-element?) children),
+                  property (default-property c)]
+              (if (and (empty? (setters c, property)) (list-getter c, property))
+                (emit-list-additions! ctx, sym, (list-getter c, property), (mapv #(compile-instance ctx, %) defaults))
+                (if (== 1 (count defaults))
+                  (let [child (compile-instance ctx, (first defaults))]
+                    (emit-setter! ctx, sym, c, property, (constantly child)))
+                  (unsupported "Default property %s of %s cannot hold multiple elements." property (.getName c))))
+              (recur remaining))))))))
+
+
+(defn- named-arg-name
+  [annotations]
+  (some #(when (instance? NamedArg %) (.value ^NamedArg %)) annotations))
+
+
+(defn- named-arg-constructor
+  "Returns the constructor with named arguments that covers the given attribute names with the fewest parameters."
+  [^Class c, attribute-names]
+  (->> (.getConstructors c)
+    (keep
+      (fn [^Constructor ctor]
+        (let [names (mapv named-arg-name (.getParameterAnnotations ctor))]
+          (when (and (every? some? names) (every? (set names) attribute-names))
+            [ctor, names]))))
+    (sort-by (comp count second))
+    first))
+
+
+(defn- named-arg-default
+  [^Constructor ctor, index]
+  (let [^NamedArg annotation (some #(when (instance? NamedArg %) %) (aget (.getParameterAnnotations ctor) index))]
+    (.defaultValue annotation)))
+
+
+(defn- construction-form
+  "Returns the form that creates the instance and the attributes that remain to be set."
+  [^Class c, attrs, ^Element element]
+  (if (some #(zero? (.getParameterCount ^Constructor %)) (.getConstructors c))
+    [`(new ~(class-symbol c)), attrs]
+    (let [[ctor-attrs, remaining] ((juxt filter remove) #(not (static-property-name? (:name %))) attrs),
+          attr-map (into {} (map (juxt :name :value)) ctor-attrs),
+          [^Constructor ctor, names] (or (named-arg-constructor c, (keys attr-map))
+                                       (unsupported "No suitable constructor for %s found." (.getName c)))]
+      (when (seq (child-elements element))
+        (unsupported "Property elements of %s are not supported." (.getName c)))
+      [`(new ~(class-symbol c)
+          ~@(map-indexed
+              (fn [index, name]
+                (let [^Class param-type (aget (.getParameterTypes ctor) index),
+                      value (get attr-map name (named-arg-default ctor, index))]
+                  (if (and (= value "") (not= param-type String))
+                    (if (.isPrimitive param-type)
+                      (coerce-form (if (= param-type Boolean/TYPE) "false" "0"), param-type)
+                      nil)
+                    (coerce-form (attribute-value value), param-type))))
+              names)),
+       remaining])))
+
+
+(defn- compile-instance
+  "Emits the bindings that create and configure the instance described by the element and returns its symbol
+  (or a form for constants and values)."
+  [{:keys [imports, ids] :as ctx}, ^Element element]
+  (when (fx-element? element)
+    (unsupported "Element %s is not supported." (.getTagName element)))
+  (let [c (resolve-class imports, (.getTagName element)),
+        attrs (remove #(= xmlns-namespace (:namespace %)) (attributes element)),
+        fx-attrs (into {} (comp (filter #(= fx-namespace (:namespace %))) (map (juxt :name :value))) attrs),
+        attrs (remove #(= fx-namespace (:namespace %)) attrs)]
+    (when-let [unknown (seq (remove #{"id", "constant", "value"} (keys fx-attrs)))]
+      (unsupported "FXML attributes %s are not supported." (str/join ", " (map #(str "fx:" %) unknown))))
+    (cond
+      (contains? fx-attrs "constant")
+      (symbol (.getName c) (get fx-attrs "constant"))
+
+      (contains? fx-attrs "value")
+      (coerce-form (get fx-attrs "value"), c)
+
+      :else
+      (let [[form, attrs] (construction-form c, attrs, element),
+            sym (new-symbol ctx, c),
+            id (some #(when (= "id" (:name %)) (:value %)) attrs),
+            fx-id (get fx-attrs "id")]
+        (emit! ctx, sym, form)
+        (run! #(emit-attribute! ctx, sym, c, %) attrs)
+        (when (and fx-id (nil? id) (seq (setters c, "id")))
+          (emit-setter! ctx, sym, c, "id", (constantly fx-id)))
+        (emit-children! ctx, sym, c, element)
+        ; record ids after the children such that parents override children with the same id (like find-child-nodes)
+        (when-let [id (or id fx-id)]
+          (vswap! ids assoc (keyword id) sym))
+        sym))))
+
+
+(defn fxml-builder-form
+  "Compiles the given FXML resource into the form of a function without parameters
+  that creates the control (see clj-jfx.control/create) described by the FXML.
+  Throws an exception for unsupported FXML features (check via unsupported?)."
+  [fxml-filename]
+  (let [url (or (io/resource fxml-filename) (unsupported "Resource \"%s\" not found!" fxml-filename)),
+        document (parse-document url),
+        ctx {:imports (document-imports document),
+             :bindings (volatile! []),
+             :ids (volatile! {}),
+             :counter (volatile! 0)},
+        root (compile-instance ctx, (.getDocumentElement document))]
+    `(fn []
+       (let [~@(deref (:bindings ctx))]
+         (ctrl/create ~root, ~(deref (:ids ctx)))))))
+
+
+(defmacro fxml-builder
+  "Compiles the given FXML resource at macro expansion time (e.g. during AOT compilation) into a function
+  without parameters that creates the control described by the FXML."
+  [fxml-filename]
+  (fxml-builder-form fxml-filename))
+
+
+(defn compile-fxml
+  "Compiles the given FXML resource at runtime into a function without parameters
+  that creates the control described by the FXML."
+  [fxml-filename]
+  (binding [*ns* (the-ns 'clj-jfx.fxml)]
+    (eval (fxml-builder-form fxml-filename))))
+
+
+(def ^:private ^ConcurrentHashMap builder-cache (ConcurrentHashMap.))
+
+
+(defn cached-builder
+  "Returns the compiled builder function of the given FXML resource (compiled on first use)
+  or nil when the FXML cannot be compiled, e.g. because it uses features that are not supported by the compiler.
+  Then the FXMLLoader has to be used."
+  [fxml-filename]
+  (let [builder (.computeIfAbsent builder-cache fxml-filename
+                  (reify Function
+                    (apply [_, fxml-filename]
+                      (try
+                        (compile-fxml fxml-filename)
+                        (catch Throwable t
+                          ; unsupported features are expected, other failures (e.g. method code too large) are logged once
+                          (when-not (unsupported? t)
+                            (u/log-exception (format "Failed to compile FXML %s, using the FXMLLoader instead." fxml-filename) t))
+                          ::unsupported)))))]
+    (when-not (= builder ::unsupported)
+      builder)))
@@ -11,6 +11,7 @@
   (:import (javafx.fxml FXMLLoader)
            (javafx.stage Stage StageStyle Modality)
            (javafx.scene Scene)
+           (javafx.scene.control ProgressIndicator Labeled)
            (javafx.application Platform)))
 
 
@@ -48,4 +49,28 @@
     (let [value (deref result)]
       (if (instance? Throwable value)
         (throw (RuntimeException. "Failed to create and show splash screen.", value))
-        value))))
\ No newline at end of file
+        value))))
+
+
+(defn progress-fn
+  "Returns a function (fn [finished, total, message] ...) that displays the progress on the given splash screen window.
+  The progress is shown in the ProgressBar or ProgressIndicator with id \"progress\"
+  and the message in the Label with id \"status\" (if the splash screen contains them)."
+  [^Stage window]
+  (fn [finished, total, message]
+    (Platform/runLater
+      (fn []
+        (let [scene (.getScene window),
+              progress (.lookup scene "#progress"),
+              status (.lookup scene "#status")]
+          (when (instance? ProgressIndicator progress)
+            (.setProgress ^ProgressIndicator progress (if (pos? (long total)) (/ (double finished) (double total)) 1.0)))
+          (when (instance? Labeled status)
+            (.setText ^Labeled status (str message))))))))
+
+
+(defn close-splashscreen
+  [^Stage window]
+  (Platform/runLater
+    (fn []
+      (.close window))))
@@ -0,0 +1,276 @@
+; Copyright (c) Gunnar Völkel. All rights reserved.
+; The use and distribution terms for this software are covered by the
+; Eclipse Public License 2.0 (http://www.eclipse.org/legal/epl-v20.html)
+; which can be found in the file LICENSE at the root of this distribution.
+; By using this software in any fashion, you are agreeing to be bound by
+; the terms of this license.
+; You must not remove this notice, or any other, from this software.
+
+(ns clj-jfx.startup
+  (:require
+    [clojure.string :as str]
+    [clj-jfx.util :as u]
+    [clj-jfx.splashscreen :as splash])
+  (:import
+    (java.util.concurrent CompletableFuture CompletionException ExecutorService Executors)
+    (java.util.concurrent.atomic AtomicLong)
+    (java.util.function Supplier Function BiConsumer)
+    (javafx.scene.text Font)))
+
+
+; Runs the initialization tasks of an application concurrently (respecting their dependencies)
+; while the splash screen is shown, reports the progress and records the timing of every task.
+; Tasks are maps {:id ..., :fn (fn [dependency-results] ...), :deps [...], :description ...} created via task.
+
+
+(defonce ^:private require-lock (Object.))
+
+
+(defn require-namespaces
+  "Loads the given namespaces. Loading via this function is serialized since require is not thread-safe,
+  such that startup tasks running concurrently can load namespaces."
+  [& ns-symbols]
+  (locking require-lock
+    (apply require ns-symbols))
+  nil)
+
+
+(defn resolve-var
+  "Loads the namespace of the given qualified symbol (see require-namespaces) and returns the var."
+  [qualified-symbol]
+  (require-namespaces (symbol (namespace qualified-symbol)))
+  (or
+    (resolve qualified-symbol)
+    (u/illegal-argument "Var %s not found." qualified-symbol)))
+
+
+(defn task
+  "Creates a startup task. The function f is called with a map from the ids of the dependencies to their results."
+  [id, f, & {:keys [deps, description]}]
+  {:id id,
+   :fn f,
+   :deps (vec deps),
+   :description (or description (name id))})
+
+
+(defonce ^:private task-registry (atom {}))
+
+
+(defn register-task!
+  "Registers a startup task (see task) that is run by run-registered-tasks."
+  [id, f, & options]
+  (swap! task-registry assoc id (apply task id, f, options))
+  id)
+
+
+(defn unregister-task!
+  [id]
+  (swap! task-registry dissoc id)
+  id)
+
+
+(defn registered-tasks
+  []
+  (vec (vals (deref task-registry))))
+
+
+(defn- sorted-tasks
+  "Returns the tasks in topological order of their dependencies."
+  [tasks]
+  (let [id->task (reduce
+                   (fn [id->task, {:keys [id] :as task}]
+                     (if (contains? id->task id)
+                       (u/illegal-argument "Duplicate startup task %s." id)
+                       (assoc id->task id task)))
+                   {}
+                   tasks)]
+    (doseq [{:keys [id, deps]} tasks, dep deps]
+      (when-not (contains? id->task dep)
+        (u/illegal-argument "Startup task %s depends on unknown task %s." id, dep)))
+    (loop [sorted [], done #{}, remaining tasks]
+      (if (empty? remaining)
+        sorted
+        (let [{ready true, blocked false} (group-by #(every? done (:deps %)) remaining)]
+          (if (empty? ready)
+            (u/illegal-argument "Cyclic dependencies between the startup tasks %s." (str/join ", " (map :id blocked)))
+            (recur (into sorted ready), (into done (map :id) ready), blocked)))))))
+
+
+(defn- elapsed-ms
+  ^double [^long start-nanos]
+  (/ (- (System/nanoTime) start-nanos) 1e6))
+
+
+(defn- cause
+  [^Throwable t]
+  (if (and (instance? CompletionException t) (.getCause t))
+    (.getCause t)
+    t))
+
+
+(defn- start-task
+  ^CompletableFuture [{:keys [id, deps] f :fn}, futures, timings, start-nanos, ^ExecutorService executor]
+  (let [run (fn []
+              (let [dep-results (into {} (map (fn [dep] [dep (.getNow ^CompletableFuture (get futures dep), nil)])) deps),
+                    task-start (elapsed-ms start-nanos)]
+                (swap! timings assoc id {:start-ms task-start, :thread (.getName (Thread/currentThread))})
+                (try
+                  (f dep-results)
+                  (finally
+                    (swap! timings update id assoc :end-ms (elapsed-ms start-nanos))))))]
+    (if (empty? deps)
+      (CompletableFuture/supplyAsync (reify Supplier (get [_] (run))), executor)
+      (.thenApplyAsync (CompletableFuture/allOf (into-array CompletableFuture (map futures deps)))
+        (reify Function (apply [_, _] (run))),
+        executor))))
+
+
+(defn- task-report
+  [tasks, futures, timings]
+  (->> tasks
+    (mapv
+      (fn [{:keys [id, description, deps]}]
+        (let [^CompletableFuture future (get futures id),
+              {:keys [start-ms, end-ms, thread]} (get timings id)]
+          {:id id,
+           :description description,
+           :deps deps,
+           :status (cond
+                     (not (.isCompletedExceptionally future)) :ok
+                     start-ms :failed
+                     :else :skipped),
+           :start-ms start-ms,
+           :duration-ms (when (and start-ms end-ms) (- (double end-ms) (double start-ms))),
+           :thread thread})))
+    (sort-by #(or (:start-ms %) Double/MAX_VALUE))
+    vec))
+
+
+(defn run-tasks
+  "Runs the given startup tasks concurrently on a thread pool. A task starts as soon as all its dependencies are done.
+  Returns a map with the :results of the tasks (by id), the timing :report (see format-report) and the total :duration-ms.
+  When tasks fail, the tasks depending on them are skipped and an ex-info with the :failures and the :report is thrown
+  after all other tasks are done.
+  Options:
+    :threads - number of threads (default: number of processors, at least 2)
+    :progress-fn - (fn [finished, total, message] ...) called after each finished task"
+  [tasks, & {:keys [threads, progress-fn]}]
+  (let [tasks (sorted-tasks tasks),
+        task-count (count tasks),
+        executor (Executors/newFixedThreadPool (int (or threads (max 2 (.availableProcessors (Runtime/getRuntime))))), (u/daemon-thread-factory "clj-jfx-startup")),
+        timings (atom {}),
+        finished (AtomicLong.),
+        start-nanos (System/nanoTime)]
+    (try
+      (let [futures (reduce
+                      (fn [futures, {:keys [id, description] :as task}]
+                        (let [future (start-task task, futures, timings, start-nanos, executor)]
+                          (when progress-fn
+                            (.whenComplete future
+                              (reify BiConsumer
+                                (accept [_, _, _]
+                                  (u/safe (progress-fn (.incrementAndGet finished), task-count, description))))))
+                          (assoc futures id future)))
+                      {}
+                      tasks)]
+        (try
+          (.join (CompletableFuture/allOf (into-array CompletableFuture (vals futures))))
+          (catch CompletionException _
+            ; failures are reported per task below
+            nil))
+        (let [timings (deref timings),
+              report (task-report tasks, futures, timings),
+              failures (into {}
+                         (keep
+                           (fn [{:keys [id, status]}]
+                             (when (= status :failed)
+                               (try
+                                 (.join ^CompletableFuture (get futures id))
+                                 nil
+                                 (catch Throwable t
+                                   [id (cause t)])))))
+                         report)]
+          (if (seq failures)
+            (throw (ex-info (format "Startup tasks failed: %s" (str/join ", " (keys failures)))
+                     {:failures failures, :report report},
+                     (first (vals failures))))
+            {:results (into {} (map (fn [[id, ^CompletableFuture future]] [id (.join future)])) futures),
+             :report report,
+             :duration-ms (elapsed-ms start-nanos)})))
+      (finally
+        (.shutdown executor)))))
+
+
+(defn format-report
+  "Formats the timing report of run-tasks as a table sorted by the start time of the tasks."
+  [report, duration-ms]
+  (let [width (reduce max (count "task") (map (comp count str :description) report)),
+        row-format (str "%-" width "s  %8s  %10s  %-7s  %s")]
+    (str/join "\n"
+      (concat
+        [(format row-format "task" "start ms" "duration ms" "status" "thread")]
+        (map
+          (fn [{:keys [description, start-ms, duration-ms, status, thread]}]
+            (format row-format
+              description
+              (if start-ms (format "%.1f" (double start-ms)) "-")
+              (if duration-ms (format "%.1f" (double duration-ms)) "-")
+              (name status)
+              (or thread "-")))
+          report)
+        [(format "total %.1f ms (sum of task durations %.1f ms)"
+           (double duration-ms)
+           (double (reduce + 0.0 (keep :duration-ms report))))]))))
+
+
+(defn default-tasks
+  "Returns startup tasks that warm up the expensive parts of clj-jfx:
+  enumerating the installed fonts, loading clj-jfx.core (including the color constants),
+  loading the TrueType font metadata of the font selection and compiling and prebuilding the FXML dialogs."
+  []
+  [(task ::fonts
+     (fn [_] (count (Font/getFamilies))),
+     :description "font families")
+   (task ::core
+     (fn [_] (require-namespaces 'clj-jfx.core)),
+     :description "load clj-jfx.core")
+   (task ::font-selection
+     (fn [_] (require-namespaces 'clj-jfx.font-selection)),
+     :deps [::core],
+     :description "load clj-jfx.font-selection")
+   (task ::font-metadata
+     (fn [_] (count (deref ((resolve-var 'clj-jfx.font-selection/true-type-font-metadata-future))))),
+     :deps [::font-selection],
+     :description "TrueType font metadata")
+   (task ::dialogs
+     (fn [_]
+       (let [cached-builder (resolve-var 'clj-jfx.fxml/cached-builder),
+             prebuild-controls! (resolve-var 'clj-jfx.core/prebuild-controls!)]
+         (doseq [fxml-filename ["clj_jfx/TableSelectionDialog.fxml", "clj_jfx/FontSelectionDialog.fxml"]]
+           (cached-builder fxml-filename)
+           (prebuild-controls! fxml-filename)))),
+     :deps [::font-selection],
+     :description "compile dialogs")])
+
+
+(defn run-registered-tasks
+  "Runs the registered startup tasks (see run-tasks for the options)."
+  [& options]
+  (apply run-tasks (registered-tasks), options))
+
+
+(defn run-with-splashscreen
+  "Shows the splash screen from the given FXML resource, runs the startup tasks while reporting the progress on the
+  splash screen (see clj-jfx.splashscreen/progress-fn) and closes the splash screen afterwards.
+  Returns the result of run-tasks. The timing report is printed when :print-report? is true."
+  [splashscreen-fxml, tasks, & {:keys [threads, print-report?]}]
+  (let [window (splash/show-splashscreen splashscreen-fxml)]
+    (try
+      (let [{:keys [report, duration-ms] :as result} (run-tasks tasks,
+                                                       :threads threads,
+                                                       :progress-fn (splash/progress-fn window))]
+        (when print-report?
+          (println (format-report report, duration-ms)))
+        result)
+      (finally
+        (splash/close-splashscreen window)))))
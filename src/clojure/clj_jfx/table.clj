@@ -12,42 +12,69 @@
             [clj-jfx.properties :as props]
             [clj-jfx.user-data :as ud]
             [clj-jfx.colorchooser :as cc]
+            [clj-jfx.colors :as col]
             [clojure.string :as str]
             [clojure.pprint :as pp]
             [clojure.stacktrace :as st])
   (:import (javafx.scene.control TableView TableColumn TableColumn$CellDataFeatures Label ComboBox TableCell)
            (java.util List Collection)
-           (javafx.collections ObservableList ListChangeListener$Change)
+           (javafx.collections ObservableList ListChangeListener ListChangeListener$Change)
            (java.lang.ref WeakReference)
-           (javafx.collections.transformation FilteredList SortedList)
-           (clj_jfx.table CustomTableCell MultiFunctionalTableCell TableCellWrapper)
+           (javafx.collections.transformation FilteredList TransformationList)
+           (clj_jfx.table CustomTableCell CustomEditorTableCell MultiFunctionalTableCell TableCellWrapper KeySortedList)
            (javafx.scene.text Text FontSmoothingType)
            (javafx.scene.layout VBox)
            (javafx.beans.property Property SimpleObjectProperty)
            (javafx.scene.control.skin TableViewSkinBase)
            (javafx.geometry Insets)
+           (javafx.beans.value ObservableValue ChangeListener)
            (javafx.beans InvalidationListener)
-           (javafx.beans.value ObservableValue)))
+           (javafx.scene.shape Rectangle)
+           (javafx.scene Node Parent)))
 
 
 
+(defn- column-index-map
+  [^ObservableList columns]
+  (persistent!
+    (reduce-kv
+      (fn [m, index, column]
+        (assoc! m column index))
+      (transient {})
+      (vec columns))))
+
+
+(defn column-index-map-property
+  "Returns the property containing the map from the columns of the given table to their indices.
+  The property is created once per table and updated once per change of the columns."
+  [^TableView table-view]
+  (let [properties (.getProperties table-view)]
+    (or
+      (.get properties ::column-index-map)
+      (let [columns (.getColumns table-view)
+            prop (jfx/object-property (column-index-map columns))]
+        (jfx/invalidation-listener! columns
+          (fn [_]
+            (props/set prop (column-index-map columns))))
+        (.put properties ::column-index-map prop)
+        prop))))
+
+
 (defn column-index
   ^long [^TableColumn table-column]
-  (some-> table-column .getTableView .getColumns (.indexOf table-column)))
+  (if-let [table-view (some-> table-column .getTableView)]
+    (get (props/get (column-index-map-property table-view)) table-column -1)
+    -1))
 
 
 (defn column-index-property
   [^TableCell cell]
-  (let [columns-prop (props/property-via-fn
-                       #(when %
-                          (props/observable-list->property (.getColumns ^TableView %)))
-                       (props/property cell, :table-view))]
-    (props/fn-property
-      (fn [^ObservableList column-list, column]
-        (when (and column-list column)
-          (.indexOf column-list column)))
-      columns-prop
-      (props/property cell, :table-column))))
+  (props/fn-property
+    (fn [column-index-map, column]
+      (when (and column-index-map column)
+        (get column-index-map column)))
+    (props/property-via-fn #(some-> % column-index-map-property), (props/property cell, :table-view))
+    (props/property cell, :table-column)))
 
 
 (defn cell-position-property
@@ -120,17 +147,157 @@
     filtered-model))
 
 
+(def ^:private ^:const max-incremental-row-changes 64)
+
+
+(defn changed-row-indices
+  "Returns the indices of the rows that changed in place or nil when more than `max-incremental-row-changes` rows changed."
+  [old-rows, new-rows]
+  (let [n (min (count old-rows) (count new-rows))]
+    (loop [i 0, changed (transient [])]
+      (cond
+        (> (count changed) max-incremental-row-changes)
+        nil
+
+        (< i n)
+        (recur
+          (unchecked-inc i)
+          (cond-> changed
+            (not (identical? (nth old-rows i), (nth new-rows i)))
+            (conj! i)))
+
+        :else
+        (persistent! changed)))))
+
+
+(defn replace-rows
+  "Replaces `removed-count` rows starting at `from` by the given added rows."
+  [rows, ^long from, ^long removed-count, added-rows]
+  (let [n (count rows)]
+    (if (== (+ from removed-count) n)
+      ; change at the end of the vector
+      (into (loop [rows rows, k removed-count]
+              (if (pos? k)
+                (recur (pop rows), (dec k))
+                rows))
+        added-rows)
+      (-> (into [] (subvec rows 0 from))
+        (into added-rows)
+        (into (subvec rows (+ from removed-count)))))))
+
+
+(defn permute-rows
+  [rows, ^ListChangeListener$Change change]
+  (let [from (.getFrom change),
+        segment (subvec rows from (.getTo change))]
+    (persistent!
+      (reduce
+        (fn [rows, ^long i]
+          (assoc! rows (.getPermutation change i) (nth segment (- i from))))
+        (transient rows)
+        (range from (.getTo change))))))
+
+
+(defn apply-sorted-model-change
+  "Applies the change ranges of the sorted table model to the vector of sorted rows."
+  [sorted-rows, ^ListChangeListener$Change change]
+  (loop [sorted-rows sorted-rows]
+    (if (.next change)
+      (recur
+        (cond
+          (.wasPermutated change)
+          (permute-rows sorted-rows, change)
+
+          (.wasUpdated change)
+          (let [^List sorted-model (.getList change)]
+            (reduce
+              (fn [sorted-rows, ^long i]
+                (assoc sorted-rows i (props/get (.get sorted-model i))))
+              sorted-rows
+              (range (.getFrom change) (.getTo change))))
+
+          :else
+          (replace-rows sorted-rows, (.getFrom change), (.getRemovedSize change),
+            (mapv props/get (.getAddedSubList change)))))
+      sorted-rows)))
+
+
+(defn filtered-index
+  "Returns the index of the given table model row in the filtered model or -1 if the row is filtered out."
+  ^long [^TransformationList filtered-model, ^long row-index]
+  (let [index (.getViewIndex filtered-model row-index)]
+    (if (and (< -1 index (.size filtered-model)) (== row-index (.getSourceIndex filtered-model index)))
+      index
+      -1)))
+
+
+(defn update-changed-rows
+  "Moves the rows whose data changed in place to their new sorted position (if the table is sorted)
+  and updates their values in the given vector of sorted rows.
+  Falls back to a complete resort and rebuild when many rows changed."
+  [^KeySortedList sorted-model, ^ObservableList table-model, sorted?, sorted-rows, old-rows, new-rows]
+  (if-let [changed-indices (changed-row-indices old-rows, new-rows)]
+    (if (seq changed-indices)
+      (let [source (.getSource sorted-model)
+            source-indices (mapv
+                             (fn [^long row-index]
+                               (if (identical? source table-model)
+                                 row-index
+                                 (filtered-index source, row-index)))
+                             changed-indices)]
+        (when sorted?
+          (u/for-each!
+            (fn [^long source-index]
+              (when-not (neg? source-index)
+                (.sourceRowChanged sorted-model source-index)))
+            source-indices))
+        (reduce
+          (fn [sorted-rows, [row-index, source-index]]
+            (cond-> sorted-rows
+              (not (neg? (long source-index)))
+              (assoc (.getViewIndex sorted-model source-index) (nth new-rows row-index))))
+          (sorted-rows)
+          (mapv vector changed-indices source-indices)))
+      (sorted-rows))
+    (do
+      (when sorted?
+        (.resort sorted-model))
+      (mapv props/get sorted-model))))
+
+
 (defn setup-sorting
   [^ObservableList table-model, ^TableView table, data-prop]
-  (let [sorted-model (SortedList. table-model)]
-    (props/bind (props/property sorted-model :comparator) (props/property table :comparator))
-    (props/list-property-binding sorted-model, (props/entry-property data-prop, [:sorted-rows])
-      :update-list-fn
-      (fn [& args] #_DO-NOTHING)
-      :update-property-fn
-      (fn [_, _, new-value]
-        (mapv props/get new-value))
-      :initialize :property)
+  (let [sorted-model (doto (KeySortedList. table-model,
+                             (fn [column]
+                               (:sort-key-fn (ud/user-data column))))
+                       (.setNaturalComparator u/universal-compare))
+        sorted-rows-prop (props/entry-property data-prop, [:sorted-rows])
+        ; sorted rows that are collected while handling a row update (to set the property only once)
+        pending-sorted-rows (volatile! nil)]
+    ; sort by extracted column keys instead of via TableColumnComparator
+    (.setSortPolicy table
+      (jfx/callback [table]
+        (.sortBy sorted-model (.getSortOrder ^TableView table))
+        true))
+    ; maintain sorted rows from the change ranges of the sorted model
+    (props/set sorted-rows-prop (mapv props/get sorted-model))
+    (.addListener sorted-model
+      (reify ListChangeListener
+        (onChanged [_, change]
+          (if-let [sorted-rows @pending-sorted-rows]
+            (vreset! pending-sorted-rows (apply-sorted-model-change sorted-rows, change))
+            (props/set sorted-rows-prop (apply-sorted-model-change (props/get sorted-rows-prop), change))))))
+    ; rows whose values changed in place need to be updated and moved to their new position
+    ; (row count changes are handled via the table model)
+    (jfx/change-listener! (props/entry-property data-prop, [:rows])
+      (fn [_, old-rows, new-rows]
+        (vreset! pending-sorted-rows (props/get sorted-rows-prop))
+        (let [sorted-rows (try
+                            (update-changed-rows sorted-model, table-model, (pos? (.size (.getSortOrder table))),
+                              #(deref pending-sorted-rows), old-rows, new-rows)
+                            (finally
+                              (vreset! pending-sorted-rows nil)))]
+          (props/set sorted-rows-prop sorted-rows))))
     sorted-model))
 
 
@@ -240,16 +407,19 @@
         (.setCellValueFactory
           ; either attribute or both conversion functions must be given for a cell value factory
           (when (or attribute (and value->display display->value))
-            (jfx/callback [cdfs]
-              ; create cell property if not cached already
-              (when-let [row-prop (.getValue ^TableColumn$CellDataFeatures cdfs)]
-                (let [prop (if attribute
-                             (props/entry-property row-prop, [attribute])
-                             row-prop)]
-                  (if (and value->display display->value)
-                    (doto (SimpleObjectProperty.)
-                      (props/bind-bidi display->value, prop, value->display))
-                    prop))))))))))
+            (let [cache (jfx/cell-value-cache)]
+              (jfx/callback [cdfs]
+                ; create cell property if not cached already
+                (when-let [row-prop (.getValue ^TableColumn$CellDataFeatures cdfs)]
+                  (jfx/cached-cell-value cache, row-prop,
+                    (fn [row-prop]
+                      (let [prop (if attribute
+                                   (props/entry-property row-prop, [attribute])
+                                   row-prop)]
+                        (if (and value->display display->value)
+                          (doto (SimpleObjectProperty.)
+                            (props/bind-bidi display->value, prop, value->display))
+                          prop)))))))))))))
 
 
 (defn update-column-width
@@ -273,11 +443,24 @@
           TableColumn/DEFAULT_CELL_FACTORY)))))
 
 
+(defn sort-key-fn
+  "Returns a function extracting the sort key directly from the row property, such that sorting does not need to create
+  the cell value properties. Returns nil when there is no attribute, i.e. the sort key is determined by the
+  cell value factory."
+  [{:keys [attribute, value->display, display->value]}]
+  (when attribute
+    (if (and value->display display->value)
+      (fn [row-prop]
+        (value->display (get (props/get row-prop) attribute)))
+      (fn [row-prop]
+        (get (props/get row-prop) attribute)))))
+
+
 (defn update-column-user-data
   [{:keys [^TableColumn column, modified-attributes, column-spec]}]
-  (when (some-modified? modified-attributes, :attribute, :id)
+  (when (some-modified? modified-attributes, :attribute, :id, :value->display, :display->value)
     (let [{:keys [attribute, id]} column-spec]
-      (ud/update-user-data! column #(assoc %, :attribute attribute, :id id)))))
+      (ud/update-user-data! column #(assoc %, :attribute attribute, :id id, :sort-key-fn (sort-key-fn column-spec))))))
 
 
 (defn update-properties
@@ -301,6 +484,20 @@
     fn-list))
 
 
+(defn refresh-column-cells
+  "Updates the visible cells of the given column such that they use the current cell value factory of the column."
+  [^TableView table-view, ^TableColumn column]
+  (doseq [^Node row (.lookupAll table-view ".table-row-cell")]
+    (when (instance? Parent row)
+      (doseq [cell (.getChildrenUnmodifiable ^Parent row)]
+        (when (and (instance? TableCell cell) (identical? column (.getTableColumn ^TableCell cell)))
+          (let [^TableCell cell cell
+                index (.getIndex cell)]
+            ; reset the index to force the cell to update its item from the column's observable value
+            (.updateIndex cell -1)
+            (.updateIndex cell index)))))))
+
+
 (defn update-columns
   [^ObservableList observable-list, old-column-list, new-column-list]
   (let [columns (vec observable-list)
@@ -334,14 +531,21 @@
 
       (neg? delta)
       (.remove observable-list new-column-count, old-column-count))
-    ; we need to set modified columns in the list, to ensure updates within the TableView :(
-    (when (seq column-modifications)
-      (u/for-each!
-        (fn [{:keys [index, column, modified-attributes]}]
-          ; trigger update only when :id or :attribute changed to avoid losing focus on editing cell values
-          (when (some modified-attributes [:id, :attribute])
-            (.set observable-list index, column)))
-        column-modifications))))
+    ; refresh only the cells of columns whose cell values changed (header attributes need no refresh)
+    ; (added columns get new cells anyway)
+    (when-let [existing-column-modifications (seq (filterv #(< (long (:index %)) old-column-count) column-modifications))]
+      (let [^TableColumn some-column (first columns)
+            table-view (some-> some-column .getTableView)]
+        (when table-view
+          (if (some #(some-modified? (:modified-attributes %), :cell-factory) existing-column-modifications)
+            ; cells of the column must be recreated which is only possible via a full refresh
+            (.refresh table-view)
+            (u/for-each!
+              (fn [{:keys [column, modified-attributes]}]
+                ; avoid refreshing on other attributes to not lose focus on editing cell values
+                (when (some-modified? modified-attributes, :id, :attribute, :value->display, :display->value)
+                  (refresh-column-cells table-view, column)))
+              existing-column-modifications)))))))
 
 
 (defn update-column-data
@@ -359,13 +563,7 @@
   (props/list-property-binding (.getColumns table), (props/entry-property data-prop, [:columns])
     :update-list-fn update-columns
     :update-property-fn update-column-data
-    :initialize :list)
-  (-> table
-    .getColumns
-    (.addListener
-      (reify InvalidationListener
-        (invalidated [this observable]
-          (.refresh table))))))
+    :initialize :list))
 
 
 (defn setup-table
@@ -381,6 +579,7 @@
     (swap! data-ref assoc :columns (vec column-spec))
     (doto table
       (ud/user-data! data-ref)
+      jfx/bitset-selection-model!
       (.setItems model)
       (cond-> placeholder (.setPlaceholder (Label. placeholder))))))
 
@@ -468,16 +667,34 @@
 
 
 (defn color-chooser-cell
+  "Cell showing a color swatch with the color name. A color chooser shared by all cells of the column is shown
+  when the cell is hovered or focused."
   []
-  (let [color-chooser (doto (cc/color-chooser)
-                        (jfx/max-size! Double/MAX_VALUE, Double/MAX_VALUE))]
-    (doto (CustomTableCell. color-chooser, (props/property color-chooser, :value))
+  (let [swatch (doto (Rectangle. 24.0, 12.0)
+                 (jfx/add-style-class "static-color-swatch"))]
+    (doto (CustomEditorTableCell. ::color-chooser-cell,
+            (fn create-editor []
+              (doto (cc/color-chooser)
+                (jfx/max-size! Double/MAX_VALUE, Double/MAX_VALUE)))
+            (fn bind-editor [color-chooser, property]
+              (props/bind-bidi (props/property color-chooser, :value), property))
+            (fn unbind-editor [color-chooser, property]
+              (props/unbind-bidi (props/property color-chooser, :value), property))
+            (fn render-static [^TableCell cell, color]
+              (.setFill swatch color)
+              (.setGraphic cell (when color swatch))
+              (.setText cell (when color (col/color-name color)))))
       (jfx/padding! Insets/EMPTY))))
 
 
 (defn multi-functional-cell
-  [cell-factory-fn]
-  (MultiFunctionalTableCell. cell-factory-fn))
+  "Cell showing the node created by (cell-factory-fn row-index, item) which returns a map {:node node, :property prop}.
+  When a type function (fn [row-index, item] type) is given, the cell reuses the node and property of a type for all
+  rows of that type instead of calling the cell factory for each row."
+  ([cell-factory-fn]
+   (MultiFunctionalTableCell. cell-factory-fn))
+  ([cell-factory-fn, type-fn]
+   (MultiFunctionalTableCell. cell-factory-fn, type-fn)))
 
 
 (defn table-cell
@@ -498,45 +715,43 @@
 
 
 (defn combobox-cell
+  "Cell showing the rendered value as text. A combobox shared by all cells of the column is shown when the cell is
+  hovered or focused. Cells of the same column must use the same choice values property."
   [choice-values-prop, renderer-fn, prompt]
-  (let [converter (jfx/string-converter (or renderer-fn str))
-        ^ComboBox
-        cb (doto (ComboBox.)
-             (jfx/combobox-converter! converter)
-             (jfx/combobox-cell-factory! converter)
-             (jfx/max-size! Double/MAX_VALUE, Double/MAX_VALUE)
-             (props/set-property :prompt-text prompt))
-        selected-item-prop (props/selected-item-property cb)
-        prev-observable-atom (atom nil)]
-    (props/list-property-binding (props/items cb), choice-values-prop, :initialize :list)
-    (jfx/invalidation-listener! choice-values-prop
-      (fn [_]
-        (props/set selected-item-prop nil)))
-    (doto (TableCellWrapper.
-            (fn [^TableCell cell, value, empty?]
-              (if empty?
-                ; hide combobox
-                (do
-                  (when-let [prev-observable (deref prev-observable-atom)]
-                    (props/unbind-bidi selected-item-prop, prev-observable)
-                    (reset! prev-observable-atom nil))
-                  (.setGraphic cell nil)
-                  (-> cb .getSelectionModel (.select -1)))
-                ; setup bindings if needed
-                (let [observable (cell-observable-value cell)
-                      prev-observable (deref prev-observable-atom)]
-                  (when-not (= prev-observable observable)
-                    ; unbind
-                    (when prev-observable
-                      (props/unbind-bidi selected-item-prop, prev-observable))
-                    ; bind
-                    (props/bind-bidi selected-item-prop, observable)
-                    (reset! prev-observable-atom observable)
-                    ; show combobox
-                    (.setGraphic cell cb))))))
-      (jfx/padding! 0)
-      (.setGraphic nil)
-      (.setText nil))))
+  (let [renderer-fn (or renderer-fn str)]
+    (doto (CustomEditorTableCell. ::combobox-cell,
+            (fn create-editor []
+              (let [converter (jfx/string-converter renderer-fn)
+                    ^ComboBox
+                    cb (doto (ComboBox.)
+                         (jfx/combobox-converter! converter)
+                         (jfx/combobox-cell-factory! converter)
+                         (jfx/max-size! Double/MAX_VALUE, Double/MAX_VALUE)
+                         (props/set-property :prompt-text prompt))
+                    selected-item-prop (props/selected-item-property cb)]
+                (doto (.getProperties cb)
+                  (.put ::selected-item-property selected-item-prop)
+                  (.put ::choice-values-binding (props/list-property-binding (props/items cb), choice-values-prop, :initialize :list))
+                  (.put ::choice-values-listener (jfx/invalidation-listener! choice-values-prop
+                                                   (fn [_]
+                                                     (props/set selected-item-prop nil)))))
+                cb))
+            (fn bind-editor [^ComboBox cb, property]
+              (props/bind-bidi (.get (.getProperties cb) ::selected-item-property), property))
+            (fn unbind-editor [^ComboBox cb, property]
+              (props/unbind-bidi (.get (.getProperties cb) ::selected-item-property), property)
+              (-> cb .getSelectionModel (.select -1)))
+            (fn render-static [^TableCell cell, value]
+              (.setGraphic cell nil)
+              (.setText cell (if (nil? value) prompt (renderer-fn value))))
+            (fn dispose-editor [^ComboBox cb]
+              ; the editor of the previous cell factory must not keep listening to its choice values
+              (let [properties (.getProperties cb),
+                    ^ListChangeListener binding (.get properties ::choice-values-binding)]
+                (.removeListener ^ObservableValue choice-values-prop ^ChangeListener binding)
+                (.removeListener ^ObservableList (.getItems cb) binding)
+                (.removeListener ^ObservableValue choice-values-prop ^InvalidationListener (.get properties ::choice-values-listener)))))
+      (jfx/padding! 0))))
 
 
 (defn colored-text-cell
@@ -8,12 +8,20 @@
 
 (ns clj-jfx.traversal
   (:require
-    [clj-jfx.control :as ctrl])
+    [clj-jfx.control :as ctrl]
+    [clj-jfx.util :as u])
   (:import (javafx.stage Stage)
-           (javafx.scene Scene)
+           (javafx.scene Scene Node)
            (javafx.scene.layout Pane)
-           (javafx.scene.control ToolBar SplitPane TitledPane MenuBar Menu TabPane Tab MenuButton ScrollPane Accordion)
-           (clojure.lang IDeref)))
+           (javafx.scene.control ToolBar SplitPane TitledPane MenuBar Menu TabPane Tab MenuButton ScrollPane Accordion MenuItem)
+           (javafx.beans Observable)
+           (javafx.beans.value ObservableValue ChangeListener)
+           (javafx.collections ObservableList ListChangeListener)
+           (java.util ArrayDeque HashMap IdentityHashMap Map$Entry)
+           (java.util.concurrent.atomic AtomicReference)
+           (clojure.lang IDeref IReduceInit MultiFn)
+           (java.lang ClassValue)
+           (clj_jfx.traversal NodeTraversal)))
 
 
 
@@ -91,6 +99,323 @@
   (vector (.getContent scrollpane)))
 
 
+(defmulti observable-children
+  "Determines the observable list or observable value that holds the child nodes of a given node.
+  Containers without an implementation are not tracked by the id index (see find-indexed-node)."
+  (fn [node] (class node)))
+
+
+(defmethod observable-children :default
+  [_]
+  nil)
+
+
+(defmethod observable-children Stage
+  [^Stage stage]
+  (.sceneProperty stage))
+
+
+(defmethod observable-children Scene
+  [^Scene scene]
+  (.rootProperty scene))
+
+
+(defmethod observable-children Pane
+  [^Pane parent]
+  (.getChildren parent))
+
+
+(defmethod observable-children ToolBar
+  [^ToolBar toolbar]
+  (.getItems toolbar))
+
+
+(defmethod observable-children SplitPane
+  [^SplitPane split-pane]
+  (.getItems split-pane))
+
+
+(defmethod observable-children TitledPane
+  [^TitledPane titled-pane]
+  (.contentProperty titled-pane))
+
+
+(defmethod observable-children Accordion
+  [^Accordion accordion]
+  (.getPanes accordion))
+
+
+(defmethod observable-children MenuBar
+  [^MenuBar menu-bar]
+  (.getMenus menu-bar))
+
+
+(defmethod observable-children Menu
+  [^Menu menu]
+  (.getItems menu))
+
+
+(defmethod observable-children TabPane
+  [^TabPane tabpane]
+  (.getTabs tabpane))
+
+
+(defmethod observable-children Tab
+  [^Tab tab]
+  (.contentProperty tab))
+
+
+(defmethod observable-children MenuButton
+  [^MenuButton menu-button]
+  (.getItems menu-button))
+
+
+(defmethod observable-children ScrollPane
+  [^ScrollPane scrollpane]
+  (.contentProperty scrollpane))
+
+
+
+; Id index per scene.
+; The index contains all nodes with an id that are reachable from the scene root via containers that implement
+; observable-children. It is updated by listeners on these child lists and values as well as on the id properties.
+; Containers that implement children but not observable-children are remembered as untracked, since ids below them
+; can only be found via traversal.
+; A node can be referenced by several tracked containers (e.g. the content of a ScrollPane is also a child of its skin),
+; hence the references to each node are counted and the node is only removed when no tracked container references it.
+
+(deftype IdIndex [id->nodes, node->listeners, node->refs, untracked])
+
+
+(defn- id-property
+  ^ObservableValue [node]
+  (cond
+    (instance? Node node) (.idProperty ^Node node)
+    (instance? MenuItem node) (.idProperty ^MenuItem node)
+    (instance? Tab node) (.idProperty ^Tab node)))
+
+
+(defn- add-id!
+  [^IdIndex index, id, node]
+  (when id
+    (let [id->nodes ^HashMap (.id->nodes index),
+          nodes (.get id->nodes id)]
+      (.put id->nodes id (if (nil? nodes) [node] (conj nodes node))))))
+
+
+(defn- remove-id!
+  [^IdIndex index, id, node]
+  (when id
+    (let [id->nodes ^HashMap (.id->nodes index),
+          nodes (into [] (remove #(identical? % node)) (.get id->nodes id))]
+      (if (seq nodes)
+        (.put id->nodes id nodes)
+        (.remove id->nodes id)))))
+
+
+(defn- push-children!
+  [^ArrayDeque stack, observable]
+  (if (instance? ObservableList observable)
+    (u/for-each! #(.push stack %) observable)
+    (when-let [child (.getValue ^ObservableValue observable)]
+      (.push stack child))))
+
+
+(declare add-subtree! remove-subtree!)
+
+
+(defn- child-list-listener
+  [^IdIndex index]
+  (reify ListChangeListener
+    (onChanged [_, change]
+      (locking index
+        (while (.next change)
+          (when-not (.wasPermutated change)
+            (run! #(remove-subtree! index, %) (.getRemoved change))
+            (run! #(add-subtree! index, %) (.getAddedSubList change))))))))
+
+
+(defn- child-value-listener
+  [^IdIndex index]
+  (reify ChangeListener
+    (changed [_, _, old-child, new-child]
+      (locking index
+        (some->> old-child (remove-subtree! index))
+        (some->> new-child (add-subtree! index))))))
+
+
+(defn- id-listener
+  [^IdIndex index, node]
+  (reify ChangeListener
+    (changed [_, _, old-id, new-id]
+      (locking index
+        (remove-id! index, old-id, node)
+        (add-id! index, new-id, node)))))
+
+
+(defn- add-listener!
+  [^Observable observable, listener]
+  (if (instance? ObservableList observable)
+    (.addListener ^ObservableList observable ^ListChangeListener listener)
+    (.addListener ^ObservableValue observable ^ChangeListener listener))
+  [observable, listener])
+
+
+(defn- remove-listener!
+  [[^Observable observable, listener]]
+  (if (instance? ObservableList observable)
+    (.removeListener ^ObservableList observable ^ListChangeListener listener)
+    (.removeListener ^ObservableValue observable ^ChangeListener listener)))
+
+
+(defn- tracked-container?
+  "Returns false for nodes with a children implementation but without an observable-children implementation."
+  [node]
+  (let [node-class (class node)]
+    (or
+      (identical? (get-method children node-class) (get-method children :default))
+      (not (identical? (get-method observable-children node-class) (get-method observable-children :default))))))
+
+
+(defn- add-subtree!
+  [^IdIndex index, root]
+  (let [node->listeners ^IdentityHashMap (.node->listeners index),
+        node->refs ^IdentityHashMap (.node->refs index),
+        stack (ArrayDeque.)]
+    (.push stack root)
+    (while (not (.isEmpty stack))
+      (let [node (.pop stack),
+            refs (long (or (.get node->refs node) 0))]
+        (.put node->refs node (inc refs))
+        ; the subtree of an already referenced node is tracked
+        (when (zero? refs)
+          (let [id-prop (id-property node),
+                children-obs (observable-children node)]
+            (when id-prop
+              (add-id! index, (.getValue id-prop), node))
+            (.put node->listeners node
+              (cond-> []
+                id-prop (conj (add-listener! id-prop, (id-listener index, node)))
+                children-obs (conj (add-listener! children-obs,
+                                     (if (instance? ObservableList children-obs)
+                                       (child-list-listener index)
+                                       (child-value-listener index))))))
+            (when-not (tracked-container? node)
+              (.put ^IdentityHashMap (.untracked index) node node))
+            (when children-obs
+              (push-children! stack, children-obs))))))))
+
+
+(defn- remove-subtree!
+  [^IdIndex index, root]
+  (let [node->listeners ^IdentityHashMap (.node->listeners index),
+        node->refs ^IdentityHashMap (.node->refs index),
+        stack (ArrayDeque.)]
+    (.push stack root)
+    (while (not (.isEmpty stack))
+      (let [node (.pop stack),
+            refs (long (or (.get node->refs node) 0))]
+        (if (> refs 1)
+          ; still referenced by another tracked container
+          (.put node->refs node (dec refs))
+          (.remove node->refs node))
+        (when-let [listeners (when (== refs 1) (.remove node->listeners node))]
+          (run! remove-listener! listeners)
+          (.remove ^IdentityHashMap (.untracked index) node)
+          (when-let [id-prop (id-property node)]
+            (remove-id! index, (.getValue id-prop), node))
+          (when-let [children-obs (observable-children node)]
+            (push-children! stack, children-obs)))))))
+
+
+(defn- scene-id-index
+  "Returns the id index of the scene. Since building the index costs about as much as several traversals,
+  the index is only built on the second lookup in a scene (returns nil on the first lookup)."
+  ^IdIndex [^Scene scene]
+  (let [properties (.getProperties scene)]
+    (locking properties
+      (cond
+        (.containsKey properties ::id-index)
+        (.get properties ::id-index)
+
+        (.containsKey properties ::id-lookup)
+        (let [index (IdIndex. (HashMap.), (IdentityHashMap.), (IdentityHashMap.), (IdentityHashMap.))]
+          (locking index
+            (add-subtree! index, scene))
+          (.remove properties ::id-lookup)
+          (.put properties ::id-index index)
+          index)
+
+        :else
+        (do
+          (.put properties ::id-lookup true)
+          nil)))))
+
+
+(defn- node-scene
+  ^Scene [node]
+  (cond
+    (instance? Scene node) node
+    (instance? Stage node) (.getScene ^Stage node)
+    (instance? Node node) (.getScene ^Node node)))
+
+
+(defn- descendant?
+  [ancestor, node]
+  (cond
+    (or (instance? Scene ancestor) (instance? Stage ancestor))
+    true
+
+    (instance? Node node)
+    (loop [^Node node node]
+      (cond
+        (nil? node) false
+        (identical? node ancestor) true
+        :else (recur (.getParent node))))
+
+    :else
+    false))
+
+
+(defn find-indexed-node
+  "Looks up the node with the given id below the given parent node via the id index of the parent's scene.
+  Returns a vector containing the found node (or nil when it is known that there is no such node)
+  and returns nil when the index cannot decide, e.g. for detached subtrees or duplicate ids."
+  [parent-node, id]
+  (when-let [scene (node-scene parent-node)]
+    (when-let [index (scene-id-index scene)]
+      (locking index
+        (let [nodes (.get ^HashMap (.id->nodes index) id)]
+          (cond
+            (== (count nodes) 1)
+            (let [node (first nodes)]
+              (when (descendant? parent-node, node)
+                [node]))
+
+            (and (empty? nodes) (.isEmpty ^IdentityHashMap (.untracked index)))
+            [nil]))))))
+
+
+(defn indexed-child-nodes
+  "Returns a map from id to node of all nodes below the given scene or stage via the scene's id index.
+  Returns nil when the index cannot decide, i.e. when there are untracked containers or duplicate ids."
+  [scene-or-stage]
+  (when (or (instance? Scene scene-or-stage) (instance? Stage scene-or-stage))
+    (when-let [scene (node-scene scene-or-stage)]
+      (when-let [index (scene-id-index scene)]
+        (locking index
+          (when (.isEmpty ^IdentityHashMap (.untracked index))
+            (reduce
+              (fn [result, ^Map$Entry entry]
+                (let [nodes (.getValue entry)]
+                  (if (== (count nodes) 1)
+                    (assoc result (keyword (.getKey entry)) (first nodes))
+                    (reduced nil))))
+              {}
+              (.entrySet ^HashMap (.id->nodes index)))))))))
+
+
+
 (deftype Traversed [value]
   IDeref
   (deref [_] value))
@@ -123,6 +448,108 @@
       (order-fn node (children node)))))
 
 
+; Iterative traversal.
+; The children of a class are accessed via observable-children (without copying) when it mirrors the children
+; implementation of that class, otherwise via children. The accessors are cached per class and revalidated
+; when methods are added to or removed from one of both multimethods.
+
+(defn- observable-children-dispatch-class
+  [node-class]
+  (let [observable-method (get-method observable-children node-class)]
+    (when-not (identical? observable-method (get-method observable-children :default))
+      (some
+        (fn [[dispatch-value, method]]
+          (when (and (identical? method observable-method) (class? dispatch-value) (isa? node-class dispatch-value))
+            dispatch-value))
+        (methods observable-children)))))
+
+
+(defn- resolve-child-accessor
+  "Returns a function that returns the children of a node of the given class as list or single child node.
+  Returns nil for classes without children."
+  [node-class]
+  (let [children-method (get-method children node-class)]
+    (when-not (identical? children-method (get-method children :default))
+      (let [dispatch-class (observable-children-dispatch-class node-class)]
+        (if (and dispatch-class (identical? children-method (get-method children dispatch-class)))
+          (let [observable-method (get-method observable-children node-class)]
+            (fn [node]
+              (let [observable (observable-method node)]
+                (if (instance? ObservableValue observable)
+                  (.getValue ^ObservableValue observable)
+                  observable))))
+          children-method)))))
+
+
+(def ^:private ^ClassValue child-accessor-cache
+  (proxy [ClassValue] []
+    (computeValue [_]
+      (AtomicReference.))))
+
+
+(defn- child-accessor
+  [node-class]
+  (let [^AtomicReference entry-ref (.get child-accessor-cache node-class),
+        ^objects entry (.get entry-ref),
+        children-table (.getMethodTable ^MultiFn children),
+        observable-table (.getMethodTable ^MultiFn observable-children)]
+    (if (and entry (identical? (aget entry 0) children-table) (identical? (aget entry 1) observable-table))
+      (aget entry 2)
+      (let [accessor (resolve-child-accessor node-class)]
+        (.set entry-ref (object-array [children-table, observable-table, accessor]))
+        accessor))))
+
+
+(defn- node-children
+  [node]
+  (when-let [accessor (child-accessor (class node))]
+    (accessor node)))
+
+
+(defn nodes
+  "Returns a reducible (IReduceInit) of the given node and all nodes below it.
+  The nodes are traversed iteratively without copying the child lists and without intermediate collections,
+  e.g. (into [] (filter visible?) (nodes root)). Reduction stops early on reduced values.
+  The traversed containers must not be modified during the reduction.
+
+  Options:
+  :order - :pre-order (default) or :post-order
+  :prune-fn - the children of nodes for which this predicate returns true are not traversed"
+  ([root]
+   (nodes root, nil))
+  ([root, {:keys [order, prune-fn], :or {order :pre-order}}]
+   (let [root (cond-> root (ctrl/control? root) ctrl/control-node)]
+     (case order
+       :pre-order (reify IReduceInit
+                    (reduce [_, f, init]
+                      (NodeTraversal/reducePreOrder node-children, prune-fn, f, init, root)))
+       :post-order (reify IReduceInit
+                     (reduce [_, f, init]
+                       (NodeTraversal/reducePostOrder node-children, prune-fn, f, init, root)))
+       (u/illegal-argument "Unsupported traversal order %s! Use :pre-order or :post-order." order)))))
+
+
+(defn- traversal-reducing-fn
+  [combine-fn, transform-fn]
+  (fn [result, node]
+    (let [value (transform-fn node)]
+      (if (traversed? value)
+        (reduced value)
+        (combine-fn result, value)))))
+
+
+(defn reduce-nodes
+  "Transforms the given node and all nodes below it via transform-fn and combines the values into one flat result
+  via combine-fn, which is called without arguments for the initial value.
+  In contrast to traverse-pre-order and traverse-post-order, per-subtree results are not combined first,
+  hence the result only equals theirs for associative combine functions.
+  Only a root control is replaced by its control node.
+  Options: :order - :pre-order (default) or :post-order"
+  [combine-fn, transform-fn, node, & {:keys [order], :or {order :pre-order}}]
+  (let [result (reduce (traversal-reducing-fn combine-fn, transform-fn), (combine-fn), (nodes node, {:order order}))]
+    (cond-> result (traversed? result) deref)))
+
+
 (defn traverse-pre-order
   [combine-fn, transform-fn, node]
   (let [result (traverse list*, combine-fn, transform-fn, node)]
@@ -133,8 +560,3 @@
   [combine-fn, transform-fn, node]
   (let [result (traverse (fn [node, children] (concat children [node])), combine-fn, transform-fn, node)]
     (cond-> result (traversed? result) deref)))
-
-
-
-
-
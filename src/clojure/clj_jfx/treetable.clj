@@ -12,10 +12,11 @@
     [clj-jfx.properties :as props]
     [clj-jfx.util :as u])
   (:import
-    (clj_jfx.treetable CustomTreeTableCell)
+    (clj_jfx.treetable CustomTreeTableCell LazyTreeItem)
     (javafx.scene.control CheckBox TreeTableView TreeTableColumn$CellDataFeatures TreeTableColumn TreeItem Label)
     (java.util List)
-    (javafx.collections ObservableList)))
+    (javafx.collections ObservableList)
+    (javafx.beans.value ObservableValue ChangeListener)))
 
 
 
@@ -40,12 +41,27 @@
 
 
 (defn tree-item
+  "Creates the tree item for the node at the given path. The child items are only created when the tree item is
+  expanded or its children are requested otherwise."
   [dialog-state, path]
   (let [properties-prop (props/entry-property dialog-state, (conj path :properties))
-        children-prop (props/entry-property dialog-state, (conj path :children))
-        tree-item (TreeItem.)]
-    (jfx/bind-list-updating (.getChildren tree-item), children-prop
-      (partial update-tree-item-children dialog-state, path))
+        ^ObservableValue children-prop (props/entry-property dialog-state, (conj path :children))
+        leaf-listener (volatile! nil)
+        tree-item (LazyTreeItem.
+                    (fn leaf? []
+                      (empty? (props/get children-prop)))
+                    (fn materialize [^TreeItem tree-item]
+                      (when-let [^ChangeListener listener (deref leaf-listener)]
+                        (.removeListener children-prop listener))
+                      (jfx/bind-list-updating (.getChildren tree-item), children-prop
+                        (partial update-tree-item-children dialog-state, path))))]
+    ; without child items no tree modification event reports that the item became a leaf or a non-leaf,
+    ; hence the child items are created in that case
+    (vreset! leaf-listener
+      (jfx/change-listener! children-prop
+        (fn [_, old-children, new-children]
+          (when-not (= (empty? old-children) (empty? new-children))
+            (.getChildren tree-item)))))
     ; bind tree-item value
     (jfx/bind-bidirectional (props/property tree-item, :value) properties-prop)
     tree-item))
@@ -69,11 +85,12 @@
           (when name
             (.setText column name))
           (when attribute
-            (.setCellValueFactory column
-              (jfx/callback [cdfs]
-                (jfx/map-attribute-property
-                  attribute
-                  (-> ^TreeTableColumn$CellDataFeatures cdfs .getValue (props/property :value))))))
+            (let [cache (jfx/cell-value-cache)]
+              (.setCellValueFactory column
+                (jfx/callback [cdfs]
+                  (jfx/cached-cell-value cache, (.getValue ^TreeTableColumn$CellDataFeatures cdfs),
+                    (fn [tree-item]
+                      (jfx/map-attribute-property attribute, (props/property tree-item, :value))))))))
           (doto column
             (.setSortable (boolean sortable?)))
           (when cell-factory
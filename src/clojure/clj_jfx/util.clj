@@ -13,6 +13,8 @@
     [clojure.java.io :as io]
     [clojure.set :as set])
   (:import (java.util UUID)
+           (java.util.concurrent ThreadFactory)
+           (java.util.concurrent.atomic AtomicLong)
            (clojure.lang Numbers)))
 
 
@@ -22,6 +24,16 @@
   (throw (IllegalArgumentException. ^String (apply format fmt args))))
 
 
+(defn daemon-thread-factory
+  "Creates a thread factory for daemon threads named with the given prefix and a running number."
+  ^ThreadFactory [name-prefix]
+  (let [counter (AtomicLong.)]
+    (reify ThreadFactory
+      (newThread [_, runnable]
+        (doto (Thread. runnable, (str name-prefix "-" (.incrementAndGet counter)))
+          (.setDaemon true))))))
+
+
 (defn for-each!
   [f, coll]
   (reduce
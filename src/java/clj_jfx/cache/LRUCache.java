@@ -0,0 +1,119 @@
+// Copyright (c) Gunnar Völkel. All rights reserved.
+// The use and distribution terms for this software are covered by the
+// Eclipse Public License 2.0 (http://www.eclipse.org/legal/epl-v20.html)
+// which can be found in the file LICENSE at the root of this distribution.
+// By using this software in any fashion, you are agreeing to be bound by
+// the terms of this license.
+// You must not remove this notice, or any other, from this software.
+
+package clj_jfx.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Thread-safe cache with a bounded number of entries that evicts the least recently used entry.
+ * Counts hits, misses and evictions.
+ */
+public class LRUCache<K, V> {
+
+    private final int capacity;
+    private final LinkedHashMap<K, V> map;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+
+    public LRUCache(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("The capacity of the cache must be positive.");
+
+        this.capacity = capacity;
+        // access order such that the eldest entry is the least recently used one
+        this.map = new LinkedHashMap<K, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                if (size() > LRUCache.this.capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+
+    public synchronized V get(K key) {
+        V value = map.get(key);
+        if (value != null)
+            hits++;
+        else
+            misses++;
+        return value;
+    }
+
+
+    public synchronized void put(K key, V value) {
+        map.put(key, value);
+    }
+
+
+    /**
+     * Returns the cached value of the key or computes it via the given function and caches it.
+     * The value is computed outside of the lock, such that concurrent misses of the same key might compute it twice.
+     */
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> f) {
+        V value = get(key);
+        if (value != null)
+            return value;
+
+        value = f.apply(key);
+        if (value != null) {
+            synchronized (this) {
+                V previous = map.putIfAbsent(key, value);
+                if (previous != null)
+                    value = previous;
+            }
+        }
+        return value;
+    }
+
+
+    public synchronized int size() {
+        return map.size();
+    }
+
+
+    public synchronized void clear() {
+        map.clear();
+    }
+
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+
+    public synchronized void resetStatistics() {
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+}
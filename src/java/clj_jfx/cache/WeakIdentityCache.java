@@ -0,0 +1,92 @@
+// Copyright (c) Gunnar Völkel. All rights reserved.
+// The use and distribution terms for this software are covered by the
+// Eclipse Public License 2.0 (http://www.eclipse.org/legal/epl-v20.html)
+// which can be found in the file LICENSE at the root of this distribution.
+// By using this software in any fashion, you are agreeing to be bound by
+// the terms of this license.
+// You must not remove this notice, or any other, from this software.
+
+package clj_jfx.cache;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.function.Function;
+
+/**
+ * Thread-safe cache that compares keys by identity and holds keys and values weakly.
+ * An entry disappears when its key or its value is garbage collected.
+ * Values may reference their keys (e.g. a property derived from a row property) without preventing eviction.
+ */
+public class WeakIdentityCache<K, V> {
+
+    private static final class KeyReference<K> extends WeakReference<K> {
+
+        private final int hash;
+
+        KeyReference(K key, ReferenceQueue<? super K> queue) {
+            super(key, queue);
+            this.hash = System.identityHashCode(key);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof KeyReference))
+                return false;
+            Object key = get();
+            return key != null && key == ((KeyReference<?>) obj).get();
+        }
+    }
+
+
+    private final HashMap<KeyReference<K>, WeakReference<V>> map = new HashMap<>();
+    private final ReferenceQueue<K> queue = new ReferenceQueue<>();
+
+
+    /**
+     * Returns the value cached for the given key or computes and caches it.
+     */
+    public synchronized V computeIfAbsent(K key, Function<? super K, ? extends V> createFn) {
+        expungeStaleEntries();
+
+        KeyReference<K> lookup = new KeyReference<>(key, null);
+        WeakReference<V> valueRef = map.get(lookup);
+        V value = valueRef != null ? valueRef.get() : null;
+
+        if (value == null) {
+            value = createFn.apply(key);
+            if (value != null)
+                map.put(new KeyReference<>(key, queue), new WeakReference<>(value));
+        }
+
+        return value;
+    }
+
+
+    public synchronized int size() {
+        expungeStaleEntries();
+        return map.size();
+    }
+
+
+    public synchronized void clear() {
+        map.clear();
+        // discard pending references of removed entries
+        while (queue.poll() != null) ;
+    }
+
+
+    private void expungeStaleEntries() {
+        Reference<? extends K> ref;
+        while ((ref = queue.poll()) != null)
+            map.remove(ref);
+    }
+}
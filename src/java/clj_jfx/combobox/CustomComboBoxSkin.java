@@ -14,6 +14,7 @@ import com.sun.javafx.scene.control.behavior.ComboBoxBaseBehavior;
 import javafx.scene.Node;
 import javafx.scene.control.ComboBoxBase;
 import javafx.scene.control.TextField;
+import javafx.scene.layout.StackPane;
 import clj_jfx.combobox.internal.JFXComboBoxPopupControl;
 import javafx.util.StringConverter;
 
@@ -26,13 +27,73 @@ public class CustomComboBoxSkin extends JFXComboBoxPopupControl<Object> {
 
     private final CustomComboBoxBehavior behavior;
 
+    // shared popup content (alternative to getPopupContentFn)
+    private final PopupContentPool popupContentPool;
+    // per instance container of the shared popup content
+    private StackPane popupContentSlot;
+    private Node pooledContent;
+
     public CustomComboBoxSkin(ComboBoxBase<Object> comboBox, IFn getPopupContentFn, IFn getDisplayNodeFn, IFn computePrefWidthFn, IFn computePrefHeightFn, IPersistentMap handlerMap) {
+        this(comboBox, getPopupContentFn, null, getDisplayNodeFn, computePrefWidthFn, computePrefHeightFn, handlerMap);
+    }
+
+    /**
+     * Creates a skin whose popup content is taken from the given pool when the popup is shown
+     * and returned to the pool when it is hidden.
+     */
+    public CustomComboBoxSkin(ComboBoxBase<Object> comboBox, PopupContentPool popupContentPool, IFn getDisplayNodeFn, IFn computePrefWidthFn, IFn computePrefHeightFn, IPersistentMap handlerMap) {
+        this(comboBox, null, popupContentPool, getDisplayNodeFn, computePrefWidthFn, computePrefHeightFn, handlerMap);
+    }
+
+    private CustomComboBoxSkin(ComboBoxBase<Object> comboBox, IFn getPopupContentFn, PopupContentPool popupContentPool, IFn getDisplayNodeFn, IFn computePrefWidthFn, IFn computePrefHeightFn, IPersistentMap handlerMap) {
         super(comboBox);
         this.getPopupContentFn = getPopupContentFn;
+        this.popupContentPool = popupContentPool;
         this.getDisplayNodeFn = getDisplayNodeFn;
         this.computePrefWidthFn = computePrefWidthFn;
         this.computePrefHeightFn = computePrefHeightFn;
         this.behavior = new CustomComboBoxBehavior(comboBox, handlerMap);
+
+        if (popupContentPool != null) {
+            // the popup might be hidden via the combo box, the skin or auto hide
+            comboBox.showingProperty().addListener((observable, wasShowing, isShowing) -> {
+                if (!isShowing)
+                    releasePooledContent();
+            });
+        }
+    }
+
+    private void acquirePooledContent() {
+        if (pooledContent == null) {
+            pooledContent = popupContentPool.acquire(getSkinnable());
+            popupContentSlot.getChildren().setAll(pooledContent);
+        }
+    }
+
+    private void releasePooledContent() {
+        if (pooledContent != null) {
+            Node content = pooledContent;
+            pooledContent = null;
+            popupContentSlot.getChildren().clear();
+            popupContentPool.release(content, getSkinnable());
+        }
+    }
+
+    @Override
+    public void show() {
+        if (popupContentPool != null) {
+            if (popupContentSlot == null)
+                popupContentSlot = new StackPane();
+            acquirePooledContent();
+        }
+        super.show();
+    }
+
+    @Override
+    public void dispose() {
+        if (popupContentPool != null)
+            releasePooledContent();
+        super.dispose();
     }
 
     @Override
@@ -47,6 +108,11 @@ public class CustomComboBoxSkin extends JFXComboBoxPopupControl<Object> {
 
     @Override
     protected Node getPopupContent() {
+        if (popupContentPool != null) {
+            if (popupContentSlot == null)
+                popupContentSlot = new StackPane();
+            return popupContentSlot;
+        }
         return (Node) getPopupContentFn.invoke();
     }
 
@@ -0,0 +1,67 @@
+// Copyright (c) Gunnar Völkel. All rights reserved.
+// The use and distribution terms for this software are covered by the
+// Eclipse Public License 2.0 (http://www.eclipse.org/legal/epl-v20.html)
+// which can be found in the file LICENSE at the root of this distribution.
+// By using this software in any fashion, you are agreeing to be bound by
+// the terms of this license.
+// You must not remove this notice, or any other, from this software.
+
+package clj_jfx.combobox;
+
+import clojure.lang.IFn;
+import javafx.scene.Node;
+import javafx.scene.control.ComboBoxBase;
+
+import java.util.ArrayDeque;
+
+/**
+ * Pool of popup contents that are shared by the skins of combo boxes of the same kind.
+ * Since usually only one popup is showing at a time, a single content node serves all combo boxes:
+ * it is attached to the combo box whose popup is shown and returned to the pool when the popup is hidden.
+ * Must only be used on the FX thread.
+ */
+public class PopupContentPool {
+
+    private final IFn createFn;
+    private final IFn attachFn;
+    private final IFn resetFn;
+
+    private final ArrayDeque<Node> available = new ArrayDeque<>();
+    private int createdCount = 0;
+
+
+    /**
+     * @param createFn (fn [] content) creates a new content node
+     * @param attachFn (fn [content, combobox] ...) prepares the content for the given combo box (optional)
+     * @param resetFn  (fn [content, combobox] ...) resets the content after the popup was hidden (optional)
+     */
+    public PopupContentPool(IFn createFn, IFn attachFn, IFn resetFn) {
+        this.createFn = createFn;
+        this.attachFn = attachFn;
+        this.resetFn = resetFn;
+    }
+
+
+    public Node acquire(ComboBoxBase<?> comboBox) {
+        Node content = available.poll();
+        if (content == null) {
+            content = (Node) createFn.invoke();
+            createdCount++;
+        }
+        if (attachFn != null)
+            attachFn.invoke(content, comboBox);
+        return content;
+    }
+
+
+    public void release(Node content, ComboBoxBase<?> comboBox) {
+        if (resetFn != null)
+            resetFn.invoke(content, comboBox);
+        available.push(content);
+    }
+
+
+    public int getCreatedCount() {
+        return createdCount;
+    }
+}
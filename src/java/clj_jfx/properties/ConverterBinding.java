@@ -0,0 +1,83 @@
+// Copyright (c) Gunnar Völkel. All rights reserved.
+// The use and distribution terms for this software are covered by the
+// Eclipse Public License 2.0 (http://www.eclipse.org/legal/epl-v20.html)
+// which can be found in the file LICENSE at the root of this distribution.
+// By using this software in any fashion, you are agreeing to be bound by
+// the terms of this license.
+// You must not remove this notice, or any other, from this software.
+
+package clj_jfx.properties;
+
+import clojure.lang.IFn;
+import javafx.beans.binding.ObjectBinding;
+import javafx.beans.value.ObservableValue;
+
+import java.util.Objects;
+
+/**
+ * Binding that applies a converter function to the value of a source observable.
+ * The source can be switched, such that a table cell can keep one binding for all rows it renders.
+ * The result of the last conversion is cached and reused when the source value did not change.
+ */
+public class ConverterBinding extends ObjectBinding<Object> {
+
+    private final IFn converter;
+
+    private ObservableValue<?> source;
+
+    private boolean hasCachedResult = false;
+    private Object cachedSourceValue;
+    private Object cachedResult;
+
+
+    public ConverterBinding(IFn converter) {
+        this.converter = converter;
+    }
+
+
+    public ObservableValue<?> getSource() {
+        return source;
+    }
+
+
+    /**
+     * Switches to the given source observable (may be null). Does nothing if the source did not change.
+     */
+    public void setSource(ObservableValue<?> newSource) {
+        if (newSource == source)
+            return;
+
+        if (source != null)
+            unbind(source);
+
+        source = newSource;
+
+        if (source != null)
+            bind(source);
+
+        invalidate();
+    }
+
+
+    @Override
+    protected Object computeValue() {
+        Object value = source != null ? source.getValue() : null;
+
+        if (!hasCachedResult || !Objects.equals(value, cachedSourceValue)) {
+            cachedResult = converter.invoke(value);
+            cachedSourceValue = value;
+            hasCachedResult = true;
+        }
+
+        return cachedResult;
+    }
+
+
+    @Override
+    public void dispose() {
+        setSource(null);
+        hasCachedResult = false;
+        cachedSourceValue = null;
+        cachedResult = null;
+    }
+}
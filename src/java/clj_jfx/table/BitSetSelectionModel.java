@@ -0,0 +1,718 @@
+// Copyright (c) Gunnar Völkel. All rights reserved.
+// The use and distribution terms for this software are covered by the
+// Eclipse Public License 2.0 (http://www.eclipse.org/legal/epl-v20.html)
+// which can be found in the file LICENSE at the root of this distribution.
+// By using this software in any fashion, you are agreeing to be bound by
+// the terms of this license.
+// You must not remove this notice, or any other, from this software.
+
+package clj_jfx.table;
+
+import javafx.beans.InvalidationListener;
+import javafx.beans.WeakInvalidationListener;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+import javafx.collections.ObservableListBase;
+import javafx.collections.WeakListChangeListener;
+import javafx.scene.control.SelectionMode;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableColumnBase;
+import javafx.scene.control.TablePosition;
+import javafx.scene.control.TableView;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Row selection model for TableViews that stores the selection in a BitSet.
+ * The selected indices, items and cells are views on the BitSet that are created lazily on access,
+ * and selection changes are published as ranges, such that range selection and select all do not
+ * depend on the number of selected rows.
+ * Cell selection is not supported, the columns passed to the cell based methods are ignored.
+ */
+public class BitSetSelectionModel<S> extends TableView.TableViewSelectionModel<S> {
+
+    private BitSet selected = new BitSet();
+    private int selectedCount = 0;
+
+    private final SelectionList<Integer> selectedIndices = new SelectionList<Integer>() {
+        @Override
+        Integer element(int row) {
+            return row;
+        }
+    };
+
+    private final SelectionList<S> selectedItems = new SelectionList<S>() {
+        @Override
+        S element(int row) {
+            return getModelItem(row);
+        }
+    };
+
+    @SuppressWarnings("rawtypes")
+    private final SelectionList<TablePosition> selectedCells = new SelectionList<TablePosition>() {
+        @Override
+        TablePosition element(int row) {
+            return new TablePosition<>(getTableView(), row, null);
+        }
+    };
+
+    // rank cache for sequential access of the selection lists
+    private int cachedRank = -1;
+    private int cachedRow = -1;
+
+    private ObservableList<S> items;
+
+    private final ListChangeListener<S> itemsListener = this::itemsChanged;
+    private final WeakListChangeListener<S> weakItemsListener = new WeakListChangeListener<>(itemsListener);
+
+    private final InvalidationListener itemsPropertyListener = observable -> updateItemsList();
+
+    private final InvalidationListener selectionModeListener = observable -> {
+        if (getSelectionMode() == SelectionMode.SINGLE && selectedCount > 1) {
+            int index = getSelectedIndex();
+            BitSet single = new BitSet();
+            if (isSelected(index))
+                single.set(index);
+            applySelection(single);
+        }
+    };
+
+
+    public BitSetSelectionModel(TableView<S> tableView) {
+        super(tableView);
+        tableView.itemsProperty().addListener(new WeakInvalidationListener(itemsPropertyListener));
+        selectionModeProperty().addListener(new WeakInvalidationListener(selectionModeListener));
+        updateItemsList();
+    }
+
+
+    private void updateItemsList() {
+        if (items != null)
+            items.removeListener(weakItemsListener);
+        items = getTableView().getItems();
+        if (items != null)
+            items.addListener(weakItemsListener);
+        clearSelection();
+    }
+
+
+    // selection lists
+
+    @Override
+    public ObservableList<Integer> getSelectedIndices() {
+        return selectedIndices;
+    }
+
+
+    @Override
+    public ObservableList<S> getSelectedItems() {
+        return selectedItems;
+    }
+
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public ObservableList<TablePosition> getSelectedCells() {
+        return selectedCells;
+    }
+
+
+    // returns the row of the selected index at the given rank
+    private int rowAt(int rank) {
+        if (rank < 0 || rank >= selectedCount)
+            throw new IndexOutOfBoundsException("Index: " + rank + ", Size: " + selectedCount);
+
+        int row, r;
+        if (cachedRank >= 0 && cachedRank <= rank) {
+            row = cachedRow;
+            r = cachedRank;
+        } else {
+            row = selected.nextSetBit(0);
+            r = 0;
+        }
+        while (r < rank) {
+            row = selected.nextSetBit(row + 1);
+            r++;
+        }
+        cachedRank = rank;
+        cachedRow = row;
+        return row;
+    }
+
+
+    private abstract class SelectionList<E> extends ObservableListBase<E> {
+
+        abstract E element(int row);
+
+        @Override
+        public E get(int index) {
+            return element(rowAt(index));
+        }
+
+        @Override
+        public int size() {
+            return selectedCount;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (this == selectedIndices)
+                return o instanceof Integer && isSelected((Integer) o);
+            return super.contains(o);
+        }
+
+        // changes are collected and fired as one RangeChange, since ListChangeBuilder copies the removed elements
+        private List<Object[]> steps;
+
+        void fireBegin() {
+            steps = new ArrayList<>();
+        }
+
+        void fireAdd(int from, int to) {
+            steps.add(new Object[]{from, to, Collections.emptyList()});
+        }
+
+        void fireRemove(int index, List<? extends E> removed) {
+            steps.add(new Object[]{index, index, removed});
+        }
+
+        void fireReplace(int from, int to, List<? extends E> removed) {
+            steps.add(new Object[]{from, to, removed});
+        }
+
+        void fireEnd() {
+            List<Object[]> changes = steps;
+            steps = null;
+            if (!changes.isEmpty())
+                fireChange(new RangeChange<>(this, changes));
+        }
+
+        // elements of the rows from "from" to "to" as lazy list
+        List<E> rows(int from, int to) {
+            return new AbstractList<E>() {
+                @Override
+                public E get(int index) {
+                    return element(from + index);
+                }
+
+                @Override
+                public int size() {
+                    return to - from;
+                }
+            };
+        }
+
+        // elements of the rows of the given selection as lazy list
+        List<E> rows(BitSet selection, int count) {
+            return new AbstractList<E>() {
+                private int lastIndex = -1;
+                private int lastRow = -1;
+
+                @Override
+                public E get(int index) {
+                    int row = lastIndex >= 0 && lastIndex <= index ? lastRow : selection.nextSetBit(0);
+                    for (int i = lastIndex >= 0 && lastIndex <= index ? lastIndex : 0; i < index; i++)
+                        row = selection.nextSetBit(row + 1);
+                    lastIndex = index;
+                    lastRow = row;
+                    return element(row);
+                }
+
+                @Override
+                public int size() {
+                    return count;
+                }
+            };
+        }
+    }
+
+
+    // applies the new selection and fires the differences as ranges
+    private void applySelection(BitSet newSelection) {
+        BitSet oldSelection = selected;
+        BitSet diff = (BitSet) oldSelection.clone();
+        diff.xor(newSelection);
+
+        if (diff.isEmpty())
+            return;
+
+        selected = newSelection;
+        selectedCount = newSelection.cardinality();
+        cachedRank = -1;
+
+        selectedIndices.fireBegin();
+        selectedItems.fireBegin();
+        selectedCells.fireBegin();
+
+        // position in the selection lists, i.e. number of newly selected rows before the current row
+        int position = 0;
+        int scanned = 0;
+        for (int start = diff.nextSetBit(0); start >= 0; ) {
+            position += newSelection.get(scanned, start).cardinality();
+
+            int end;
+            if (oldSelection.get(start)) {
+                // rows removed from the selection
+                end = Math.min(diff.nextClearBit(start), oldSelection.nextClearBit(start));
+                selectedIndices.fireRemove(position, selectedIndices.rows(start, end));
+                selectedItems.fireRemove(position, selectedItems.rows(start, end));
+                selectedCells.fireRemove(position, selectedCells.rows(start, end));
+            } else {
+                // rows added to the selection
+                int nextOld = oldSelection.nextSetBit(start);
+                end = Math.min(diff.nextClearBit(start), nextOld < 0 ? Integer.MAX_VALUE : nextOld);
+                int count = end - start;
+                selectedIndices.fireAdd(position, position + count);
+                selectedItems.fireAdd(position, position + count);
+                selectedCells.fireAdd(position, position + count);
+                position += count;
+            }
+
+            scanned = end;
+            start = diff.nextSetBit(end);
+        }
+
+        selectedIndices.fireEnd();
+        selectedItems.fireEnd();
+        selectedCells.fireEnd();
+    }
+
+
+    private BitSet copy() {
+        return (BitSet) selected.clone();
+    }
+
+
+    private boolean isValidRow(int row) {
+        return row >= 0 && row < getItemCount();
+    }
+
+
+    private void updateSelectedIndex(int row) {
+        setSelectedIndex(row);
+        // the selected item must be updated even when the index did not change
+        setSelectedItem(getModelItem(row));
+    }
+
+
+    // selection
+
+    @Override
+    public boolean isSelected(int row) {
+        return row >= 0 && selected.get(row);
+    }
+
+
+    @Override
+    public boolean isSelected(int row, TableColumn<S, ?> column) {
+        return isSelected(row);
+    }
+
+
+    @Override
+    public boolean isEmpty() {
+        return selectedCount == 0;
+    }
+
+
+    @Override
+    public void select(int row) {
+        if (!isValidRow(row))
+            return;
+
+        if (getSelectionMode() == SelectionMode.SINGLE) {
+            clearAndSelect(row);
+            return;
+        }
+
+        if (!selected.get(row)) {
+            BitSet selection = copy();
+            selection.set(row);
+            applySelection(selection);
+        }
+        updateSelectedIndex(row);
+        focus(row);
+    }
+
+
+    @Override
+    public void select(int row, TableColumn<S, ?> column) {
+        select(row);
+    }
+
+
+    @Override
+    public void select(S item) {
+        if (item == null) {
+            clearSelection();
+            return;
+        }
+
+        int row = items == null ? -1 : items.indexOf(item);
+        if (row >= 0)
+            select(row);
+        else {
+            // like the default selection models: the item is selected although it is not in the table
+            setSelectedIndex(-1);
+            setSelectedItem(item);
+        }
+    }
+
+
+    @Override
+    public void clearAndSelect(int row) {
+        if (!isValidRow(row))
+            return;
+
+        BitSet selection = new BitSet();
+        selection.set(row);
+        applySelection(selection);
+        updateSelectedIndex(row);
+        focus(row);
+    }
+
+
+    @Override
+    public void clearAndSelect(int row, TableColumn<S, ?> column) {
+        clearAndSelect(row);
+    }
+
+
+    @Override
+    public void selectIndices(int row, int... rows) {
+        if (getSelectionMode() == SelectionMode.SINGLE) {
+            int last = rows == null || rows.length == 0 ? row : rows[rows.length - 1];
+            for (int i = rows == null ? -1 : rows.length - 1; !isValidRow(last) && i > 0; i--)
+                last = rows[i - 1];
+            if (!isValidRow(last))
+                last = row;
+            clearAndSelect(last);
+            return;
+        }
+
+        BitSet selection = copy();
+        int last = -1;
+        if (isValidRow(row)) {
+            selection.set(row);
+            last = row;
+        }
+        if (rows != null)
+            for (int r : rows)
+                if (isValidRow(r)) {
+                    selection.set(r);
+                    last = r;
+                }
+
+        if (last >= 0) {
+            applySelection(selection);
+            updateSelectedIndex(last);
+            focus(last);
+        }
+    }
+
+
+    @Override
+    public void selectRange(int start, int end) {
+        if (start == end)
+            return;
+
+        // the end is exclusive in both directions
+        int from, to, last;
+        if (start < end) {
+            from = start;
+            to = end;
+            last = end - 1;
+        } else {
+            from = end + 1;
+            to = start + 1;
+            last = end + 1;
+        }
+        selectRows(from, to, last);
+    }
+
+
+    @Override
+    public void selectRange(int minRow, TableColumnBase<S, ?> minColumn, int maxRow, TableColumnBase<S, ?> maxColumn) {
+        selectRows(Math.min(minRow, maxRow), Math.max(minRow, maxRow) + 1, maxRow);
+    }
+
+
+    private void selectRows(int from, int to, int last) {
+        from = Math.max(0, from);
+        to = Math.min(getItemCount(), to);
+        if (from >= to)
+            return;
+
+        if (getSelectionMode() == SelectionMode.SINGLE) {
+            clearAndSelect(Math.max(from, Math.min(to - 1, last)));
+            return;
+        }
+
+        BitSet selection = copy();
+        selection.set(from, to);
+        applySelection(selection);
+        if (isValidRow(last)) {
+            updateSelectedIndex(last);
+            focus(last);
+        }
+    }
+
+
+    @Override
+    public void selectAll() {
+        if (getSelectionMode() == SelectionMode.SINGLE)
+            return;
+
+        int rowCount = getItemCount();
+        if (rowCount == 0)
+            return;
+
+        BitSet selection = new BitSet(rowCount);
+        selection.set(0, rowCount);
+        applySelection(selection);
+
+        int focusedIndex = getFocusedIndex();
+        int row = isValidRow(focusedIndex) ? focusedIndex : rowCount - 1;
+        updateSelectedIndex(row);
+        focus(row);
+    }
+
+
+    @Override
+    public void selectFirst() {
+        if (getItemCount() > 0)
+            clearAndSelect(0);
+    }
+
+
+    @Override
+    public void selectLast() {
+        int rowCount = getItemCount();
+        if (rowCount > 0)
+            clearAndSelect(rowCount - 1);
+    }
+
+
+    @Override
+    public void selectPrevious() {
+        int focusedIndex = getFocusedIndex();
+        if (focusedIndex == -1)
+            select(getItemCount() - 1);
+        else if (focusedIndex > 0)
+            select(focusedIndex - 1);
+    }
+
+
+    @Override
+    public void selectNext() {
+        int focusedIndex = getFocusedIndex();
+        if (focusedIndex == -1)
+            select(0);
+        else if (focusedIndex < getItemCount() - 1)
+            select(focusedIndex + 1);
+    }
+
+
+    @Override
+    public void selectAboveCell() {
+        selectPrevious();
+    }
+
+
+    @Override
+    public void selectBelowCell() {
+        selectNext();
+    }
+
+
+    @Override
+    public void selectLeftCell() {
+        // no cell selection
+    }
+
+
+    @Override
+    public void selectRightCell() {
+        // no cell selection
+    }
+
+
+    @Override
+    public void clearSelection(int row) {
+        if (!isSelected(row))
+            return;
+
+        BitSet selection = copy();
+        selection.clear(row);
+        applySelection(selection);
+
+        if (getSelectedIndex() == row) {
+            int previous = selected.previousSetBit(row);
+            updateSelectedIndex(previous >= 0 ? previous : selected.nextSetBit(row));
+        }
+    }
+
+
+    @Override
+    public void clearSelection(int row, TableColumn<S, ?> column) {
+        clearSelection(row);
+    }
+
+
+    @Override
+    public void clearSelection() {
+        applySelection(new BitSet());
+        updateSelectedIndex(-1);
+    }
+
+
+    // item changes
+
+    private void itemsChanged(ListChangeListener.Change<? extends S> c) {
+        if (selectedCount == 0)
+            return;
+
+        BitSet oldSelection = selected;
+        int oldCount = selectedCount;
+        int selectedIndex = getSelectedIndex();
+
+        BitSet selection = copy();
+        // items of the rows that are removed from the selection (in order of their position in the selected items)
+        List<S> removedItems = new ArrayList<>();
+        List<Integer> removedPositions = new ArrayList<>();
+        // selected items before a permutation (their order changes)
+        List<S> permutedItems = null;
+
+        while (c.next()) {
+            int from = c.getFrom();
+            if (c.wasPermutated()) {
+                if (permutedItems == null) {
+                    // selected items in the previous order, they are located at their new positions already
+                    permutedItems = new ArrayList<>(selectedCount);
+                    for (int row = selection.nextSetBit(0); row >= 0; row = selection.nextSetBit(row + 1))
+                        permutedItems.add(getModelItem(row >= from && row < c.getTo() ? c.getPermutation(row) : row));
+                }
+                BitSet permuted = selection.get(0, from);
+                for (int row = selection.nextSetBit(from); row >= 0 && row < c.getTo(); row = selection.nextSetBit(row + 1))
+                    permuted.set(c.getPermutation(row));
+                for (int row = selection.nextSetBit(c.getTo()); row >= 0; row = selection.nextSetBit(row + 1))
+                    permuted.set(row);
+                selection = permuted;
+                if (selectedIndex >= from && selectedIndex < c.getTo())
+                    selectedIndex = c.getPermutation(selectedIndex);
+            } else if (!c.wasUpdated()) {
+                int removedSize = c.getRemovedSize();
+                int addedSize = c.getAddedSize();
+                // selected rows that are removed
+                int position = rankOf(selection, from);
+                for (int row = selection.nextSetBit(from); row >= 0 && row < from + removedSize; row = selection.nextSetBit(row + 1)) {
+                    removedItems.add(c.getRemoved().get(row - from));
+                    removedPositions.add(position);
+                }
+                // shift the selection after the changed range
+                BitSet shifted = selection.get(0, from);
+                int delta = addedSize - removedSize;
+                for (int row = selection.nextSetBit(from + removedSize); row >= 0; row = selection.nextSetBit(row + 1))
+                    shifted.set(row + delta);
+                selection = shifted;
+                if (selectedIndex >= from + removedSize)
+                    selectedIndex += delta;
+                else if (selectedIndex >= from)
+                    selectedIndex = -1;
+            }
+        }
+
+        selected = selection;
+        selectedCount = selection.cardinality();
+        cachedRank = -1;
+
+        // indices (and cells) changed their values after the first change, replace them
+        selectedIndices.fireBegin();
+        selectedIndices.fireReplace(0, selectedCount, selectedIndices.rows(oldSelection, oldCount));
+        selectedIndices.fireEnd();
+
+        selectedCells.fireBegin();
+        selectedCells.fireReplace(0, selectedCount, selectedCells.rows(oldSelection, oldCount));
+        selectedCells.fireEnd();
+
+        // items only change when they are removed or their order changes
+        if (permutedItems != null) {
+            selectedItems.fireBegin();
+            selectedItems.fireReplace(0, selectedCount, permutedItems);
+            selectedItems.fireEnd();
+        } else if (!removedItems.isEmpty()) {
+            selectedItems.fireBegin();
+            for (int i = 0; i < removedItems.size(); i++)
+                selectedItems.fireRemove(removedPositions.get(i), removedItems.subList(i, i + 1));
+            selectedItems.fireEnd();
+        }
+
+        if (selectedIndex >= 0 && !selected.get(selectedIndex))
+            selectedIndex = -1;
+        if (selectedIndex < 0 && selectedCount > 0)
+            selectedIndex = selected.previousSetBit(Math.max(0, getItemCount() - 1));
+        updateSelectedIndex(selectedIndex);
+    }
+
+
+    private static class RangeChange<E> extends ListChangeListener.Change<E> {
+
+        private static final int[] NO_PERMUTATION = new int[0];
+
+        // each step consists of from, to and the list of removed elements
+        private final List<Object[]> steps;
+        private int current = -1;
+
+        RangeChange(ObservableList<E> list, List<Object[]> steps) {
+            super(list);
+            this.steps = steps;
+        }
+
+        @Override
+        public boolean next() {
+            current++;
+            return current < steps.size();
+        }
+
+        @Override
+        public void reset() {
+            current = -1;
+        }
+
+        private Object[] step() {
+            if (current < 0 || current >= steps.size())
+                throw new IllegalStateException("Invalid Change state: next() must be called before inspecting the Change.");
+            return steps.get(current);
+        }
+
+        @Override
+        public int getFrom() {
+            return (Integer) step()[0];
+        }
+
+        @Override
+        public int getTo() {
+            return (Integer) step()[1];
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public List<E> getRemoved() {
+            return (List<E>) step()[2];
+        }
+
+        @Override
+        protected int[] getPermutation() {
+            return NO_PERMUTATION;
+        }
+    }
+
+
+    private static int rankOf(BitSet selection, int row) {
+        return row <= 0 ? 0 : selection.get(0, row).cardinality();
+    }
+}
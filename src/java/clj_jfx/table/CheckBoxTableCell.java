@@ -8,68 +8,72 @@
 
 package clj_jfx.table;
 
-import javafx.beans.binding.Bindings;
 import javafx.beans.property.Property;
-import javafx.beans.value.ObservableValue;
 import javafx.geometry.Pos;
+import javafx.scene.Group;
 import javafx.scene.control.CheckBox;
 import javafx.scene.control.ContentDisplay;
-import javafx.scene.control.RadioButton;
-import javafx.scene.control.TableCell;
+import javafx.scene.shape.Rectangle;
+import javafx.scene.shape.SVGPath;
 
-public class CheckBoxTableCell<S,T> extends TableCell<S,T> {
+public class CheckBoxTableCell<S,T> extends SharedEditorTableCell<S,T,CheckBox> {
 
-    private final CheckBox checkBox;
-
-    private Property<Boolean> renderedProperty;
+    // static representation
+    private final Group glyph;
+    private final SVGPath mark;
 
 
     public CheckBoxTableCell() {
+        super(CheckBoxTableCell.class);
 
-        checkBox = new CheckBox();
-        checkBox.setContentDisplay( ContentDisplay.GRAPHIC_ONLY );
+        // colors are set via the user agent stylesheet of SharedEditorTableCell
+        Rectangle box = new Rectangle(12, 12);
+        box.setArcWidth(3);
+        box.setArcHeight(3);
+        box.getStyleClass().add("box");
 
-        // do not show anything until the cell is non-empty
-        setGraphic(null);
-        setText(null);
+        mark = new SVGPath();
+        mark.setContent("M 2.5 6 L 5 9 L 9.5 3");
+        mark.setFill(null);
+        mark.setStrokeWidth(2);
+        mark.getStyleClass().add("mark");
+
+        glyph = new Group(box, mark);
+        glyph.getStyleClass().add("static-check-box");
 
         setAlignment( Pos.CENTER );
     }
 
+    /**
+     * Returns the check box shared by the cells of the column of this cell.
+     */
     public CheckBox getCheckBox(){
-        return checkBox;
+        return getEditor();
     }
 
     @Override
-    public void updateItem(T item, boolean empty) {
-        super.updateItem(item, empty);
-        
-        if (empty) {
-            setText(null);
-            setGraphic(null);
-        } else {
-            setGraphic(checkBox);
-
+    protected CheckBox createEditor() {
+        CheckBox checkBox = new CheckBox();
+        checkBox.setContentDisplay( ContentDisplay.GRAPHIC_ONLY );
+        return checkBox;
+    }
 
-            if ( renderedProperty != null ) {
-                checkBox.selectedProperty().unbindBidirectional(renderedProperty);
-            }
+    @SuppressWarnings("unchecked")
+    @Override
+    protected void bindEditor(CheckBox checkBox, Property<T> property) {
+        checkBox.selectedProperty().bindBidirectional((Property)property);
+    }
 
-            ObservableValue obsValue = getSelectedProperty();
-            if (obsValue instanceof Property) {
-                renderedProperty = (Property)obsValue;
-                checkBox.selectedProperty().bindBidirectional(renderedProperty);
-            }
-            
-            checkBox.disableProperty().bind(
-                    Bindings.not(getTableView().editableProperty().and(
-                    getTableColumn().editableProperty()).and(
-                    editableProperty())
-                ));
-        }
+    @SuppressWarnings("unchecked")
+    @Override
+    protected void unbindEditor(CheckBox checkBox, Property<T> property) {
+        checkBox.selectedProperty().unbindBidirectional((Property)property);
     }
-    
-    private ObservableValue getSelectedProperty() {
-        return getTableColumn().getCellObservableValue(getIndex());
+
+    @Override
+    protected void renderStatic(T item) {
+        mark.setVisible( Boolean.TRUE.equals(item) );
+        setText(null);
+        setGraphic(glyph);
     }
 }
@@ -8,67 +8,57 @@
 
 package clj_jfx.table;
 
-import javafx.beans.binding.Bindings;
 import javafx.beans.property.Property;
-import javafx.beans.value.ObservableValue;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.control.ColorPicker;
-import javafx.scene.control.TableCell;
 import javafx.scene.paint.Color;
+import javafx.scene.shape.Rectangle;
 
 
-public class ColorPickerTableCell<S> extends TableCell<S, Color> {
+public class ColorPickerTableCell<S> extends SharedEditorTableCell<S, Color, ColorPicker> {
 
-    private final ColorPicker colorPicker;
-
-    private Property<Color> renderedProperty;
+    // static representation
+    private final Rectangle swatch;
 
     public ColorPickerTableCell() {
+        super(ColorPickerTableCell.class);
 
-        colorPicker = new ColorPicker();
-        colorPicker.setMaxSize(Double.MAX_VALUE, Double.MAX_VALUE);
-        this.setPadding(Insets.EMPTY);
+        // the stroke is set via the user agent stylesheet of SharedEditorTableCell
+        swatch = new Rectangle(24, 12);
+        swatch.getStyleClass().add("static-color-swatch");
 
-        // do not show anything until the cell is non-empty
-        setGraphic(null);
-        setText(null);
+        this.setPadding(Insets.EMPTY);
 
         setAlignment(Pos.CENTER);
     }
 
 
     @Override
-    public void updateItem(Color item, boolean empty) {
-        super.updateItem(item, empty);
-
-        if (empty) {
-            setText(null);
-            setGraphic(null);
-        } else {
-            setGraphic(colorPicker);
-
-            if (renderedProperty != null) {
-                colorPicker.valueProperty().unbindBidirectional(renderedProperty);
-            }
-        }
-
-        ObservableValue<Color> obsValue = getCellProperty();
-        if (obsValue instanceof Property) {
-            renderedProperty = (Property<Color>) obsValue;
-            colorPicker.valueProperty().bindBidirectional(renderedProperty);
-        }
-
-        colorPicker.disableProperty().bind(
-                Bindings.not(getTableView().editableProperty().and(
-                        getTableColumn().editableProperty()).and(
-                        editableProperty())
-                ));
+    protected ColorPicker createEditor() {
+        ColorPicker colorPicker = new ColorPicker();
+        colorPicker.setMaxSize(Double.MAX_VALUE, Double.MAX_VALUE);
+        return colorPicker;
+    }
+
+
+    @Override
+    protected void bindEditor(ColorPicker colorPicker, Property<Color> property) {
+        colorPicker.valueProperty().bindBidirectional(property);
+    }
+
+
+    @Override
+    protected void unbindEditor(ColorPicker colorPicker, Property<Color> property) {
+        colorPicker.valueProperty().unbindBidirectional(property);
     }
 
 
-    private ObservableValue<Color> getCellProperty() {
-        return getTableColumn().getCellObservableValue(getIndex());
+    @Override
+    protected void renderStatic(Color item) {
+        swatch.setFill(item);
+        setText(null);
+        setGraphic(item != null ? swatch : null);
     }
 
 }
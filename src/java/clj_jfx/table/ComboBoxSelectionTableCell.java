@@ -9,46 +9,58 @@
 package clj_jfx.table;
 
 import clojure.lang.IPersistentMap;
-import clojure.lang.IPersistentVector;
 import clojure.lang.Keyword;
-import clojure.lang.PersistentHashMap;
-import javafx.beans.InvalidationListener;
-import javafx.beans.binding.Bindings;
-import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.Property;
-import javafx.beans.property.SimpleBooleanProperty;
-import javafx.beans.property.SimpleObjectProperty;
-import javafx.beans.value.ChangeListener;
-import javafx.beans.value.ObservableValue;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
-import javafx.scene.control.ColorPicker;
 import javafx.scene.control.ComboBox;
-import javafx.scene.control.TableCell;
-import javafx.scene.paint.Color;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
 
-public class ComboBoxSelectionTableCell<S,T> extends TableCell<S,T> implements ChangeListener<IPersistentMap> {
+public class ComboBoxSelectionTableCell<S,T> extends SharedEditorTableCell<S,T,ComboBox<String>> {
 
-    private final Keyword valueListKey;
-    // private final Keyword selectedIndexKey;
+    // key of the property the shared combo box writes the selected index to
+    private static final Object TARGET_PROPERTY_KEY = new Object();
 
-    private final ComboBox<String> comboBox;
+    // item lists shared by all cells with equal value lists (only accessed on the FX thread)
+    private static final Map<List<String>, ObservableList<String>> SHARED_ITEMS = new WeakHashMap<>();
 
-    private Property<IPersistentMap> renderedProperty;
+    private final Keyword valueListKey;
+    private final Keyword selectedIndexKey;
+    private final String selectionPrompt;
 
     private Keyword selectionEnabledKey;
 
+    // suppresses writing the selection back while the combo box is updated from the cell value
+    private boolean updatingEditor;
+
     public ComboBoxSelectionTableCell(Keyword valueListKey, Keyword selectedIndexKey, String selectionPrompt) {
+        super(ComboBoxSelectionTableCell.class);
 
         this.valueListKey = valueListKey;
-        // this.selectedIndexKey = selectedIndexKey;
+        this.selectedIndexKey = selectedIndexKey;
+        this.selectionPrompt = selectionPrompt;
+
+        this.setPadding( Insets.EMPTY );
 
-        comboBox = new ComboBox<String>();
+        setAlignment( Pos.CENTER_LEFT );
+    }
+
+
+    public void setSelectionEnabledKey(Keyword selectionEnabledKey) {
+        this.selectionEnabledKey = selectionEnabledKey;
+    }
+
+
+    @SuppressWarnings("unchecked")
+    @Override
+    protected ComboBox<String> createEditor() {
+        ComboBox<String> comboBox = new ComboBox<String>();
         comboBox.setMaxSize( Double.MAX_VALUE, Double.MAX_VALUE );
 
         if( selectionPrompt != null )
@@ -58,7 +70,9 @@ public class ComboBoxSelectionTableCell<S,T> extends TableCell<S,T> implements C
                 (observable, oldValue, newValue) -> {
                     // selected index changed
                     // is there a rendered property?
-                    if( renderedProperty != null ) {
+                    Property<IPersistentMap> renderedProperty = (Property<IPersistentMap>) comboBox.getProperties().get( TARGET_PROPERTY_KEY );
+                    ComboBoxSelectionTableCell<?,?> owner = (ComboBoxSelectionTableCell<?,?>) comboBox.getProperties().get( ComboBoxSelectionTableCell.class );
+                    if( renderedProperty != null && owner != null && !owner.updatingEditor ) {
                         // update selected index in property value
                         IPersistentMap map = renderedProperty.getValue();
                         renderedProperty.setValue( map.assoc( selectedIndexKey, newValue ));
@@ -66,82 +80,96 @@ public class ComboBoxSelectionTableCell<S,T> extends TableCell<S,T> implements C
                 }
         );
 
-        this.setPadding( Insets.EMPTY );
-
+        return comboBox;
+    }
 
-        // do not show anything until the cell is non-empty
-        setGraphic(null);
-        setText(null);
 
-        setAlignment( Pos.CENTER_LEFT );
+    @Override
+    protected void bindEditor(ComboBox<String> comboBox, Property<T> property) {
+        updateEditor( comboBox, getItem() );
+        comboBox.getProperties().put( ComboBoxSelectionTableCell.class, this );
+        comboBox.getProperties().put( TARGET_PROPERTY_KEY, property );
     }
 
 
-    public void setSelectionEnabledKey(Keyword selectionEnabledKey) {
-        this.selectionEnabledKey = selectionEnabledKey;
+    @Override
+    protected void unbindEditor(ComboBox<String> comboBox, Property<T> property) {
+        comboBox.getProperties().remove( TARGET_PROPERTY_KEY );
+        comboBox.getProperties().remove( ComboBoxSelectionTableCell.class );
     }
 
 
-
     @Override
-    public void updateItem(T item, boolean empty) {
-        super.updateItem(item, empty);
-
-        if (empty) {
-            setText(null);
-            setGraphic(null);
-        } else {
-//            setGraphic(colorPicker);
-//
-//
-//            if ( renderedProperty != null ) {
-//                colorPicker.valueProperty().unbindBidirectional(renderedProperty);
-//            }
+    protected void updateEditor(ComboBox<String> comboBox, T item) {
+        IPersistentMap map = (IPersistentMap) item;
+
+        updatingEditor = true;
+        try {
+            ObservableList<String> items = sharedItems( values(map) );
+            int index = selectedIndex(map);
+            // avoid resetting the selection while the change originates from the combo box
+            if( comboBox.getItems() != items )
+                comboBox.setItems( items );
+            if( comboBox.getSelectionModel().getSelectedIndex() != index )
+                comboBox.getSelectionModel().select( index );
+        } finally {
+            updatingEditor = false;
         }
+    }
 
-        if( renderedProperty != null ) {
-            // remove this cell from listeners of the old property
-            renderedProperty.removeListener( this );
-        }
 
-        ObservableValue obsValue = getCellProperty();
-        if (obsValue instanceof Property) {
+    @Override
+    protected boolean isEditorApplicable(T item) {
+        IPersistentMap map = (IPersistentMap) item;
 
-            renderedProperty = (Property<IPersistentMap>)obsValue;
+        if( map == null || values(map).size() <= 1 )
+            return false;
 
-            renderedProperty.addListener( this );
+        return selectionEnabledKey == null || map.valAt( selectionEnabledKey ) == Boolean.TRUE;
+    }
 
-            IPersistentMap value = renderedProperty.getValue();
-
-            changed( renderedProperty, null, value);
-        }
 
+    @Override
+    protected void renderStatic(T item) {
+        IPersistentMap map = (IPersistentMap) item;
+        List<String> values = values(map);
+        int index = selectedIndex(map);
+
+        String text;
+        if( values.size() == 1 )
+            text = values.get(0);
+        else if( 0 <= index && index < values.size() )
+            text = values.get(index);
+        else
+            text = selectionPrompt;
+
+        // skip updates when nothing changed
+        if( getGraphic() != null )
+            setGraphic( null );
+        if( !Objects.equals( getText(), text ) )
+            setText( text );
     }
 
 
-    private ObservableValue getCellProperty() {
-        return getTableColumn().getCellObservableValue(getIndex());
+    private static ObservableList<String> sharedItems(List<String> values) {
+        ObservableList<String> items = SHARED_ITEMS.get( values );
+        if( items == null ) {
+            items = FXCollections.unmodifiableObservableList( FXCollections.observableArrayList( values ) );
+            SHARED_ITEMS.put( values, items );
+        }
+        return items;
     }
 
-    @Override
-    public void changed(ObservableValue<? extends IPersistentMap> observable, IPersistentMap oldValue, IPersistentMap newValue) {
-        List<String> values = (List<String>)newValue.valAt( valueListKey );
 
-        if( values.size() == 1 ) {
-            setGraphic( null );
-            setText( values.get(0) );
-        }else{
-            comboBox.setItems( FXCollections.observableArrayList( values ) );
-
-            if( selectionEnabledKey != null ) {
-                Object obj = newValue.valAt( selectionEnabledKey );
-                boolean enabled = obj == Boolean.TRUE;
+    @SuppressWarnings("unchecked")
+    private List<String> values(IPersistentMap map) {
+        Object values = map != null ? map.valAt( valueListKey ) : null;
+        return values != null ? (List<String>) values : List.of();
+    }
 
-                comboBox.setDisable( !enabled );
-            }
 
-            setGraphic( comboBox );
-            setText( null );
-        }
+    private int selectedIndex(IPersistentMap map) {
+        Object index = map != null ? map.valAt( selectedIndexKey ) : null;
+        return index instanceof Number ? ((Number) index).intValue() : -1;
     }
 }
@@ -0,0 +1,72 @@
+// Copyright (c) Gunnar Völkel. All rights reserved.
+// The use and distribution terms for this software are covered by the
+// Eclipse Public License 2.0 (http://www.eclipse.org/legal/epl-v20.html)
+// which can be found in the file LICENSE at the root of this distribution.
+// By using this software in any fashion, you are agreeing to be bound by
+// the terms of this license.
+// You must not remove this notice, or any other, from this software.
+
+package clj_jfx.table;
+
+import clojure.lang.IFn;
+import javafx.beans.property.Property;
+import javafx.scene.Node;
+
+/**
+ * Shared editor table cell configured via functions.
+ */
+public class CustomEditorTableCell<S, T> extends SharedEditorTableCell<S, T, Node> {
+
+    private final IFn createEditorFn;
+    private final IFn bindEditorFn;
+    private final IFn unbindEditorFn;
+    private final IFn renderStaticFn;
+    private final IFn disposeEditorFn;
+
+    /**
+     * @param editorKey        key of the shared editor, equal for all cells of the same column
+     * @param createEditorFn   (fn [] editor)
+     * @param bindEditorFn     (fn [editor, property] ...)
+     * @param unbindEditorFn   (fn [editor, property] ...)
+     * @param renderStaticFn   (fn [cell, item] ...) sets text and graphic of the cell
+     * @param disposeEditorFn  (fn [editor] ...) releases the editor when the cell factory of the column changed, may be null
+     */
+    public CustomEditorTableCell(Object editorKey, IFn createEditorFn, IFn bindEditorFn, IFn unbindEditorFn, IFn renderStaticFn, IFn disposeEditorFn) {
+        super(editorKey);
+        this.createEditorFn = createEditorFn;
+        this.bindEditorFn = bindEditorFn;
+        this.unbindEditorFn = unbindEditorFn;
+        this.renderStaticFn = renderStaticFn;
+        this.disposeEditorFn = disposeEditorFn;
+    }
+
+    public CustomEditorTableCell(Object editorKey, IFn createEditorFn, IFn bindEditorFn, IFn unbindEditorFn, IFn renderStaticFn) {
+        this(editorKey, createEditorFn, bindEditorFn, unbindEditorFn, renderStaticFn, null);
+    }
+
+    @Override
+    protected Node createEditor() {
+        return (Node) createEditorFn.invoke();
+    }
+
+    @Override
+    protected void bindEditor(Node editor, Property<T> property) {
+        bindEditorFn.invoke(editor, property);
+    }
+
+    @Override
+    protected void unbindEditor(Node editor, Property<T> property) {
+        unbindEditorFn.invoke(editor, property);
+    }
+
+    @Override
+    protected void disposeEditor(Node editor) {
+        if (disposeEditorFn != null)
+            disposeEditorFn.invoke(editor);
+    }
+
+    @Override
+    protected void renderStatic(T item) {
+        renderStaticFn.invoke(this, item);
+    }
+}
@@ -8,6 +8,7 @@
 
 package clj_jfx.table;
 
+import clj_jfx.properties.ConverterBinding;
 import clojure.lang.IFn;
 import javafx.beans.binding.Bindings;
 import javafx.beans.property.Property;
@@ -18,8 +19,6 @@ import javafx.scene.Node;
 import javafx.scene.control.Label;
 import javafx.scene.control.TableCell;
 
-import java.util.concurrent.Callable;
-
 public class CustomTableCell<S, T> extends TableCell<S, T> {
 
 
@@ -29,6 +28,8 @@ public class CustomTableCell<S, T> extends TableCell<S, T> {
 
     private Property renderedProperty;
     private ObservableValue renderedObservable;
+    // only used with value converter
+    private ConverterBinding converterBinding;
 
     private SimpleObjectProperty<Object> myValue = new SimpleObjectProperty<>(null);
 
@@ -89,49 +90,40 @@ public class CustomTableCell<S, T> extends TableCell<S, T> {
             setText(null);
             setGraphic(null);
         } else {
-            setText(null);
-            setGraphic(cellNode);
-
+            if (getText() != null)
+                setText(null);
+            if (getGraphic() != cellNode)
+                setGraphic(cellNode);
 
             ObservableValue newRenderedObservable = getObservableValue();
 
+            // for value converter: the cell's converter binding switches to the new observable (unidirectional)
+            if (valueConverter != null) {
+                if (converterBinding == null) {
+                    converterBinding = new ConverterBinding(valueConverter);
+                    cellNodeValueProp.bind(converterBinding);
+                    myValue.bind(converterBinding);
+                }
+                converterBinding.setSource(newRenderedObservable);
+                return;
+            }
+
+            // nothing to do when the cell still renders the same observable
+            if (newRenderedObservable != null && (newRenderedObservable == renderedProperty || newRenderedObservable == renderedObservable))
+                return;
+
+            undbindPrevious();
+
             if (newRenderedObservable instanceof Property) {
+                // bind bidirectional
                 Property newRenderedProperty = (Property) newRenderedObservable;
-                // need to adjust to property switch
-                if (newRenderedProperty != renderedProperty) {
-                    undbindPrevious();
-
-                    // for value converter: setup conversion and bind unidirectional
-                    // otherwise: bind bidirectional
-                    if (valueConverter != null) {
-                        var convertedObservable = Bindings.createObjectBinding(
-                                (Callable) () -> valueConverter.invoke(newRenderedProperty.getValue()),
-                                newRenderedProperty);
-
-                        cellNodeValueProp.bind(convertedObservable);
-                        myValue.bind(convertedObservable);
-                        renderedObservable = convertedObservable;
-                    } else {
-                        cellNodeValueProp.bindBidirectional(newRenderedProperty);
-                        myValue.bind(newRenderedProperty);
-                        renderedProperty = newRenderedProperty;
-                    }
-                }
-            }else{
-                // bind to observable if needed
-                if( newRenderedObservable != renderedObservable ) {
-                    undbindPrevious();
-
-                    if( valueConverter != null ) {
-                        var sourceObservable = newRenderedObservable;
-                        newRenderedObservable =  Bindings.createObjectBinding(
-                                (Callable) () -> valueConverter.invoke(sourceObservable.getValue()),
-                                newRenderedObservable);
-                    }
-                    cellNodeValueProp.bind(newRenderedObservable);
-                    myValue.bind(newRenderedObservable);
-                    renderedObservable = newRenderedObservable;
-                }
+                cellNodeValueProp.bindBidirectional(newRenderedProperty);
+                myValue.bind(newRenderedProperty);
+                renderedProperty = newRenderedProperty;
+            } else if (newRenderedObservable != null) {
+                cellNodeValueProp.bind(newRenderedObservable);
+                myValue.bind(newRenderedObservable);
+                renderedObservable = newRenderedObservable;
             }
         }
     }
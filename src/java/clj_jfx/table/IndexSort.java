@@ -0,0 +1,135 @@
+// Copyright (c) Gunnar Völkel. All rights reserved.
+// The use and distribution terms for this software are covered by the
+// Eclipse Public License 2.0 (http://www.eclipse.org/legal/epl-v20.html)
+// which can be found in the file LICENSE at the root of this distribution.
+// By using this software in any fashion, you are agreeing to be bound by
+// the terms of this license.
+// You must not remove this notice, or any other, from this software.
+
+package clj_jfx.table;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Stable merge sort of int index arrays with a primitive comparator.
+ * Large inputs are split and merged in parallel on the common fork join pool.
+ */
+public final class IndexSort {
+
+    public interface IndexComparator {
+        int compare(int a, int b);
+    }
+
+    // inputs of at least this size are sorted in parallel
+    public static final int PARALLEL_THRESHOLD = 1 << 16;
+
+    // sub arrays up to this size are sorted sequentially by a single task
+    private static final int SEQUENTIAL_THRESHOLD = 1 << 13;
+
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+
+    private IndexSort() {
+    }
+
+
+    public static void sort(int[] indices, int from, int to, IndexComparator comparator) {
+        if (to - from < 2)
+            return;
+
+        int[] buffer = new int[indices.length];
+
+        if (to - from >= PARALLEL_THRESHOLD && ForkJoinPool.getCommonPoolParallelism() > 1)
+            ForkJoinPool.commonPool().invoke(new SortTask(indices, buffer, from, to, comparator));
+        else
+            mergeSort(indices, buffer, from, to, comparator);
+    }
+
+
+    public static void sort(int[] indices, IndexComparator comparator) {
+        sort(indices, 0, indices.length, comparator);
+    }
+
+
+    private static void mergeSort(int[] a, int[] buffer, int from, int to, IndexComparator comparator) {
+        if (to - from <= INSERTION_SORT_THRESHOLD) {
+            insertionSort(a, from, to, comparator);
+            return;
+        }
+
+        int mid = (from + to) >>> 1;
+        mergeSort(a, buffer, from, mid, comparator);
+        mergeSort(a, buffer, mid, to, comparator);
+        merge(a, buffer, from, mid, to, comparator);
+    }
+
+
+    private static void insertionSort(int[] a, int from, int to, IndexComparator comparator) {
+        for (int i = from + 1; i < to; i++) {
+            int value = a[i];
+            int j = i - 1;
+            while (j >= from && comparator.compare(a[j], value) > 0) {
+                a[j + 1] = a[j];
+                j--;
+            }
+            a[j + 1] = value;
+        }
+    }
+
+
+    private static void merge(int[] a, int[] buffer, int from, int mid, int to, IndexComparator comparator) {
+        // already in order?
+        if (comparator.compare(a[mid - 1], a[mid]) <= 0)
+            return;
+
+        System.arraycopy(a, from, buffer, from, to - from);
+
+        int i = from, j = mid, k = from;
+        while (i < mid && j < to) {
+            // take from the left on ties to keep the sort stable
+            if (comparator.compare(buffer[j], buffer[i]) < 0)
+                a[k++] = buffer[j++];
+            else
+                a[k++] = buffer[i++];
+        }
+        while (i < mid)
+            a[k++] = buffer[i++];
+        while (j < to)
+            a[k++] = buffer[j++];
+    }
+
+
+    private static class SortTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int[] a;
+        private final int[] buffer;
+        private final int from;
+        private final int to;
+        private final IndexComparator comparator;
+
+        SortTask(int[] a, int[] buffer, int from, int to, IndexComparator comparator) {
+            this.a = a;
+            this.buffer = buffer;
+            this.from = from;
+            this.to = to;
+            this.comparator = comparator;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SEQUENTIAL_THRESHOLD) {
+                mergeSort(a, buffer, from, to, comparator);
+                return;
+            }
+
+            int mid = (from + to) >>> 1;
+            invokeAll(
+                    new SortTask(a, buffer, from, mid, comparator),
+                    new SortTask(a, buffer, mid, to, comparator));
+            merge(a, buffer, from, mid, to, comparator);
+        }
+    }
+}
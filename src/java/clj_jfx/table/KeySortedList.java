@@ -0,0 +1,758 @@
+// Copyright (c) Gunnar Völkel. All rights reserved.
+// The use and distribution terms for this software are covered by the
+// Eclipse Public License 2.0 (http://www.eclipse.org/legal/epl-v20.html)
+// which can be found in the file LICENSE at the root of this distribution.
+// By using this software in any fashion, you are agreeing to be bound by
+// the terms of this license.
+// You must not remove this notice, or any other, from this software.
+
+package clj_jfx.table;
+
+import clojure.lang.IFn;
+import javafx.beans.value.ObservableValue;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+import javafx.collections.transformation.TransformationList;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableColumnBase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Sorted view of a table model that extracts the sort keys of each row once per sort
+ * and stores them in primitive arrays per column (long, double, interned String),
+ * so that comparisons during sorting do not go through the cell value factories.
+ * Sorting is performed on an index array and published as a single permutation change.
+ * Rows whose data changed in place are moved to their new position via binary search.
+ */
+public class KeySortedList<E> extends TransformationList<E, E> {
+
+    // view index -> source index
+    private int[] sorted;
+    // source index -> view index
+    private int[] viewIndices;
+    private int size;
+
+    private ColumnKeys[] keys = new ColumnKeys[0];
+    private boolean[] descending = new boolean[0];
+    private List<TableColumnBase<E, ?>> sortOrder = Collections.emptyList();
+    private IFn[] keyFns = new IFn[0];
+
+    // (fn [column] key-fn) returning a function that extracts the sort key from a row or nil
+    private final IFn keyFnLookup;
+    // comparator that is known to agree with the natural order of Longs, Doubles and Strings
+    private Comparator<?> naturalComparator;
+
+    private final IndexSort.IndexComparator rowComparator = this::compareRows;
+
+
+    public KeySortedList(ObservableList<? extends E> source, IFn keyFnLookup) {
+        super(source);
+        this.keyFnLookup = keyFnLookup;
+        this.size = source.size();
+        this.sorted = new int[Math.max(16, size)];
+        this.viewIndices = new int[sorted.length];
+        for (int i = 0; i < size; i++) {
+            sorted[i] = i;
+            viewIndices[i] = i;
+        }
+    }
+
+
+    public void setNaturalComparator(Comparator<?> naturalComparator) {
+        this.naturalComparator = naturalComparator;
+    }
+
+
+    @Override
+    public E get(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        return getSource().get(sorted[index]);
+    }
+
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+
+    @Override
+    public int getSourceIndex(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        return sorted[index];
+    }
+
+
+    @Override
+    public int getViewIndex(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        return viewIndices[index];
+    }
+
+
+    // sorting
+
+    /**
+     * Sorts the rows by the given columns (respecting their sort types and comparators).
+     * An empty sort order restores the order of the source list.
+     */
+    public void sortBy(List<? extends TableColumnBase<E, ?>> columns) {
+        sortOrder = new ArrayList<>(columns);
+        resort();
+    }
+
+
+    /**
+     * Extracts all sort keys again and sorts the rows.
+     */
+    public void resort() {
+        int n = getSource().size();
+        extractAllKeys(n);
+
+        int[] previous = Arrays.copyOf(sorted, size);
+        for (int i = 0; i < n; i++)
+            sorted[i] = i;
+        if (keys.length > 0)
+            IndexSort.sort(sorted, 0, n, rowComparator);
+        updateViewIndices(0, n);
+
+        firePermutation(previous);
+    }
+
+
+    /**
+     * Extracts the sort key of the given source row again and moves the row to its new position.
+     * Returns true if the row was moved.
+     */
+    public boolean sourceRowChanged(int sourceIndex) {
+        if (sourceIndex < 0 || sourceIndex >= size)
+            throw new IndexOutOfBoundsException("Index: " + sourceIndex + ", Size: " + size);
+
+        if (keys.length == 0)
+            return false;
+
+        E item = getSource().get(sourceIndex);
+        for (int k = 0; k < keys.length; k++)
+            storeKey(k, sourceIndex, extractKey(k, item));
+
+        int from = viewIndices[sourceIndex];
+        int to = findPosition(sourceIndex, from);
+        if (from == to)
+            return false;
+
+        beginChange();
+        moveRow(from, to);
+        endChange();
+        return true;
+    }
+
+
+    private void moveRow(int from, int to) {
+        int sourceIndex = sorted[from];
+        int lower = Math.min(from, to), upper = Math.max(from, to);
+        int[] permutation = new int[upper - lower + 1];
+
+        if (from < to) {
+            System.arraycopy(sorted, from + 1, sorted, from, to - from);
+            for (int i = from + 1; i <= to; i++)
+                permutation[i - lower] = i - 1;
+        } else {
+            System.arraycopy(sorted, to, sorted, to + 1, from - to);
+            for (int i = to; i < from; i++)
+                permutation[i - lower] = i + 1;
+        }
+        sorted[to] = sourceIndex;
+        permutation[from - lower] = to;
+
+        updateViewIndices(lower, upper + 1);
+        nextPermutation(lower, upper + 1, permutation);
+    }
+
+
+    // determines the view position of the given source row when it is removed from the view position "current"
+    private int findPosition(int sourceIndex, int current) {
+        int low = 0, high = size - 2;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            // skip the row itself
+            int midView = mid < current ? mid : mid + 1;
+            if (compareRows(sorted[midView], sourceIndex) < 0)
+                low = mid + 1;
+            else
+                high = mid - 1;
+        }
+        return low;
+    }
+
+
+    // determines the insertion position of the given source row among the first "count" view rows
+    private int insertionPosition(int sourceIndex, int count) {
+        int low = 0, high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (compareRows(sorted[mid], sourceIndex) < 0)
+                low = mid + 1;
+            else
+                high = mid - 1;
+        }
+        return low;
+    }
+
+
+    private int compareRows(int a, int b) {
+        for (int k = 0; k < keys.length; k++) {
+            int c = keys[k].compare(a, b);
+            if (c != 0)
+                return descending[k] ? -c : c;
+        }
+        // keep source order for equal keys
+        return Integer.compare(a, b);
+    }
+
+
+    private void firePermutation(int[] previous) {
+        int n = previous.length;
+        if (n == 0 || n != size)
+            return;
+
+        int[] permutation = new int[n];
+        boolean changed = false;
+        for (int i = 0; i < n; i++) {
+            permutation[i] = viewIndices[previous[i]];
+            changed |= permutation[i] != i;
+        }
+
+        if (changed) {
+            beginChange();
+            nextPermutation(0, n, permutation);
+            endChange();
+        }
+    }
+
+
+    private void updateViewIndices(int from, int to) {
+        for (int i = from; i < to; i++)
+            viewIndices[sorted[i]] = i;
+    }
+
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > sorted.length) {
+            int newCapacity = Math.max(capacity, sorted.length + (sorted.length >> 1));
+            sorted = Arrays.copyOf(sorted, newCapacity);
+            viewIndices = Arrays.copyOf(viewIndices, newCapacity);
+        }
+        for (ColumnKeys columnKeys : keys)
+            columnKeys.ensureCapacity(capacity);
+    }
+
+
+    // key extraction
+
+    @SuppressWarnings("unchecked")
+    private Object extractKey(int k, E item) {
+        IFn keyFn = keyFns[k];
+        if (keyFn != null)
+            return keyFn.invoke(item);
+
+        ObservableValue<?> value = ((TableColumnBase<E, Object>) sortOrder.get(k)).getCellObservableValue(item);
+        return value == null ? null : value.getValue();
+    }
+
+
+    private void extractAllKeys(int n) {
+        int columnCount = sortOrder.size();
+        keys = new ColumnKeys[0];
+        ensureCapacity(n);
+
+        keys = new ColumnKeys[columnCount];
+        descending = new boolean[columnCount];
+        keyFns = new IFn[columnCount];
+
+        Object[] values = new Object[n];
+        ObservableList<? extends E> source = getSource();
+
+        for (int k = 0; k < columnCount; k++) {
+            TableColumnBase<E, ?> column = sortOrder.get(k);
+            descending[k] = column instanceof TableColumn
+                    && ((TableColumn<?, ?>) column).getSortType() == TableColumn.SortType.DESCENDING;
+            keyFns[k] = keyFnLookup == null ? null : (IFn) keyFnLookup.invoke(column);
+
+            for (int i = 0; i < n; i++)
+                values[i] = extractKey(k, source.get(i));
+
+            Comparator<Object> comparator = comparatorOf(column);
+            keys[k] = ColumnKeys.create(values, n, sorted.length, comparator, comparator == naturalComparator);
+        }
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private static Comparator<Object> comparatorOf(TableColumnBase<?, ?> column) {
+        Comparator<Object> comparator = (Comparator<Object>) column.getComparator();
+        return comparator != null ? comparator : (Comparator<Object>) TableColumnBase.DEFAULT_COMPARATOR;
+    }
+
+
+    private void storeKey(int k, int sourceIndex, Object key) {
+        if (!keys[k].store(sourceIndex, key)) {
+            // key type differs from the column's key type, fall back to comparing objects
+            keys[k] = keys[k].toObjectKeys(comparatorOf(sortOrder.get(k)));
+            keys[k].store(sourceIndex, key);
+        }
+    }
+
+
+    // source changes
+
+    @Override
+    protected void sourceChanged(ListChangeListener.Change<? extends E> c) {
+        beginChange();
+        while (c.next()) {
+            if (c.wasPermutated()) {
+                sourcePermutated(c);
+            } else if (c.wasUpdated()) {
+                for (int i = c.getFrom(); i < c.getTo(); i++) {
+                    // move the row if its key changed, listeners need the update in any case
+                    sourceRowChanged(i);
+                    nextUpdate(viewIndices[i]);
+                }
+            } else {
+                if (c.wasRemoved())
+                    sourceRemoved(c.getFrom(), c.getRemoved());
+                if (c.wasAdded())
+                    sourceAdded(c.getFrom(), c.getAddedSize());
+            }
+        }
+        endChange();
+    }
+
+
+    private void sourcePermutated(ListChangeListener.Change<? extends E> c) {
+        int[] previous = Arrays.copyOf(sorted, size);
+        // previous view positions in terms of the new source indices
+        for (int i = 0; i < size; i++) {
+            int s = previous[i];
+            if (s >= c.getFrom() && s < c.getTo())
+                previous[i] = c.getPermutation(s);
+        }
+
+        int n = size;
+        extractAllKeys(n);
+        for (int i = 0; i < n; i++)
+            sorted[i] = i;
+        if (keys.length > 0)
+            IndexSort.sort(sorted, 0, n, rowComparator);
+        updateViewIndices(0, n);
+
+        int[] permutation = new int[n];
+        for (int i = 0; i < n; i++)
+            permutation[i] = viewIndices[previous[i]];
+        nextPermutation(0, n, permutation);
+    }
+
+
+    private void sourceRemoved(int from, List<? extends E> removed) {
+        int count = removed.size();
+
+        // view positions of the removed rows paired with their index in the removed list
+        long[] removedViews = new long[count];
+        for (int i = 0; i < count; i++)
+            removedViews[i] = ((long) viewIndices[from + i] << 32) | i;
+        Arrays.sort(removedViews);
+
+        int write = 0, next = 0;
+        for (int i = 0; i < size; i++) {
+            if (next < count && (int) (removedViews[next] >>> 32) == i) {
+                next++;
+                continue;
+            }
+            int s = sorted[i];
+            sorted[write++] = s >= from + count ? s - count : s;
+        }
+
+        // remove from the highest view position so that the lower positions stay valid
+        for (int i = count - 1; i >= 0; i--)
+            nextRemove((int) (removedViews[i] >>> 32), removed.get((int) removedViews[i]));
+
+        for (ColumnKeys columnKeys : keys)
+            columnKeys.remove(from, count, size);
+
+        size -= count;
+        updateViewIndices(0, size);
+    }
+
+
+    private void sourceAdded(int from, int count) {
+        ensureCapacity(size + count);
+
+        // shift source indices of the existing rows (not needed when appending)
+        if (from < size) {
+            for (int i = 0; i < size; i++)
+                if (sorted[i] >= from)
+                    sorted[i] += count;
+            for (ColumnKeys columnKeys : keys)
+                columnKeys.insert(from, count, size);
+        }
+
+        ObservableList<? extends E> source = getSource();
+        for (int i = from; i < from + count; i++) {
+            E item = source.get(i);
+            for (int k = 0; k < keys.length; k++)
+                storeKey(k, i, extractKey(k, item));
+        }
+
+        boolean appended = from == size;
+        int lowestPosition = size;
+        for (int i = from; i < from + count; i++) {
+            int position = keys.length == 0 ? insertionPositionBySource(i) : insertionPosition(i, size);
+            System.arraycopy(sorted, position, sorted, position + 1, size - position);
+            sorted[position] = i;
+            size++;
+            lowestPosition = Math.min(lowestPosition, position);
+            nextAdd(position, position + 1);
+        }
+
+        updateViewIndices(appended ? lowestPosition : 0, size);
+    }
+
+
+    // without sort order the view keeps the order of the source
+    private int insertionPositionBySource(int sourceIndex) {
+        int low = 0, high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid] < sourceIndex)
+                low = mid + 1;
+            else
+                high = mid - 1;
+        }
+        return low;
+    }
+
+
+    // key storage
+
+    private static abstract class ColumnKeys {
+
+        static ColumnKeys create(Object[] values, int n, int capacity, Comparator<Object> comparator, boolean natural) {
+            Class<?> type = Object.class;
+            if (natural) {
+                type = null;
+                for (int i = 0; i < n; i++) {
+                    Object value = values[i];
+                    if (value == null)
+                        continue;
+                    if (type == null)
+                        type = value.getClass();
+                    else if (type != value.getClass()) {
+                        type = Object.class;
+                        break;
+                    }
+                }
+            }
+
+            ColumnKeys keys;
+            if (type == null || type == Object.class)
+                keys = new ObjectKeys(capacity, comparator);
+            else if (type == Long.class || type == Integer.class || type == Short.class || type == Byte.class)
+                keys = new LongKeys(capacity, type);
+            else if (type == Double.class || type == Float.class)
+                keys = new DoubleKeys(capacity, type);
+            else if (type == String.class)
+                keys = new StringKeys(capacity);
+            else
+                keys = new ObjectKeys(capacity, comparator);
+
+            for (int i = 0; i < n; i++)
+                keys.store(i, values[i]);
+
+            return keys;
+        }
+
+        // returns false when the key does not fit the storage type
+        abstract boolean store(int index, Object key);
+
+        abstract Object boxed(int index);
+
+        abstract int compare(int a, int b);
+
+        abstract void ensureCapacity(int capacity);
+
+        // shifts the keys starting at "from" by "count" positions to the right
+        abstract void insert(int from, int count, int size);
+
+        // removes the keys from "from" to "from + count"
+        abstract void remove(int from, int count, int size);
+
+        ObjectKeys toObjectKeys(Comparator<Object> comparator) {
+            // copy the whole capacity, since the conversion may happen while rows are being inserted
+            int capacity = capacity();
+            ObjectKeys objectKeys = new ObjectKeys(capacity, comparator);
+            for (int i = 0; i < capacity; i++)
+                objectKeys.values[i] = boxed(i);
+            return objectKeys;
+        }
+
+        abstract int capacity();
+
+        static int grow(int current, int capacity) {
+            return Math.max(capacity, current + (current >> 1));
+        }
+    }
+
+
+    private static final class LongKeys extends ColumnKeys {
+
+        private long[] values;
+        private boolean[] nulls;
+        private final Class<?> type;
+
+        LongKeys(int capacity, Class<?> type) {
+            this.values = new long[capacity];
+            this.nulls = new boolean[capacity];
+            this.type = type;
+        }
+
+        @Override
+        boolean store(int index, Object key) {
+            if (key == null) {
+                nulls[index] = true;
+                return true;
+            }
+            if (key.getClass() != type)
+                return false;
+            nulls[index] = false;
+            values[index] = ((Number) key).longValue();
+            return true;
+        }
+
+        @Override
+        Object boxed(int index) {
+            if (nulls[index])
+                return null;
+            long value = values[index];
+            if (type == Integer.class)
+                return (int) value;
+            if (type == Short.class)
+                return (short) value;
+            if (type == Byte.class)
+                return (byte) value;
+            return value;
+        }
+
+        @Override
+        int compare(int a, int b) {
+            if (nulls[a] || nulls[b])
+                return Boolean.compare(nulls[b], nulls[a]);
+            return Long.compare(values[a], values[b]);
+        }
+
+        @Override
+        void ensureCapacity(int capacity) {
+            if (capacity > values.length) {
+                int newCapacity = grow(values.length, capacity);
+                values = Arrays.copyOf(values, newCapacity);
+                nulls = Arrays.copyOf(nulls, newCapacity);
+            }
+        }
+
+        @Override
+        void insert(int from, int count, int size) {
+            System.arraycopy(values, from, values, from + count, size - from);
+            System.arraycopy(nulls, from, nulls, from + count, size - from);
+        }
+
+        @Override
+        void remove(int from, int count, int size) {
+            System.arraycopy(values, from + count, values, from, size - from - count);
+            System.arraycopy(nulls, from + count, nulls, from, size - from - count);
+        }
+
+        @Override
+        int capacity() {
+            return values.length;
+        }
+    }
+
+
+    private static final class DoubleKeys extends ColumnKeys {
+
+        private double[] values;
+        private boolean[] nulls;
+        private final Class<?> type;
+
+        DoubleKeys(int capacity, Class<?> type) {
+            this.values = new double[capacity];
+            this.nulls = new boolean[capacity];
+            this.type = type;
+        }
+
+        @Override
+        boolean store(int index, Object key) {
+            if (key == null) {
+                nulls[index] = true;
+                return true;
+            }
+            if (key.getClass() != type)
+                return false;
+            nulls[index] = false;
+            values[index] = ((Number) key).doubleValue();
+            return true;
+        }
+
+        @Override
+        Object boxed(int index) {
+            if (nulls[index])
+                return null;
+            return type == Float.class ? (Object) (float) values[index] : (Object) values[index];
+        }
+
+        @Override
+        int compare(int a, int b) {
+            if (nulls[a] || nulls[b])
+                return Boolean.compare(nulls[b], nulls[a]);
+            return Double.compare(values[a], values[b]);
+        }
+
+        @Override
+        void ensureCapacity(int capacity) {
+            if (capacity > values.length) {
+                int newCapacity = grow(values.length, capacity);
+                values = Arrays.copyOf(values, newCapacity);
+                nulls = Arrays.copyOf(nulls, newCapacity);
+            }
+        }
+
+        @Override
+        void insert(int from, int count, int size) {
+            System.arraycopy(values, from, values, from + count, size - from);
+            System.arraycopy(nulls, from, nulls, from + count, size - from);
+        }
+
+        @Override
+        void remove(int from, int count, int size) {
+            System.arraycopy(values, from + count, values, from, size - from - count);
+            System.arraycopy(nulls, from + count, nulls, from, size - from - count);
+        }
+
+        @Override
+        int capacity() {
+            return values.length;
+        }
+    }
+
+
+    private static final class StringKeys extends ColumnKeys {
+
+        private String[] values;
+
+        StringKeys(int capacity) {
+            this.values = new String[capacity];
+        }
+
+        @Override
+        boolean store(int index, Object key) {
+            if (key != null && !(key instanceof String))
+                return false;
+            // interning lets equal keys (frequent in categorical columns) compare by identity
+            values[index] = key == null ? null : ((String) key).intern();
+            return true;
+        }
+
+        @Override
+        Object boxed(int index) {
+            return values[index];
+        }
+
+        @Override
+        int compare(int a, int b) {
+            String x = values[a], y = values[b];
+            if (x == y)
+                return 0;
+            if (x == null || y == null)
+                return x == null ? -1 : 1;
+            return x.compareTo(y);
+        }
+
+        @Override
+        void ensureCapacity(int capacity) {
+            if (capacity > values.length)
+                values = Arrays.copyOf(values, grow(values.length, capacity));
+        }
+
+        @Override
+        void insert(int from, int count, int size) {
+            System.arraycopy(values, from, values, from + count, size - from);
+        }
+
+        @Override
+        void remove(int from, int count, int size) {
+            System.arraycopy(values, from + count, values, from, size - from - count);
+            Arrays.fill(values, size - count, size, null);
+        }
+
+        @Override
+        int capacity() {
+            return values.length;
+        }
+    }
+
+
+    private static final class ObjectKeys extends ColumnKeys {
+
+        private Object[] values;
+        private final Comparator<Object> comparator;
+
+        ObjectKeys(int capacity, Comparator<Object> comparator) {
+            this.values = new Object[capacity];
+            this.comparator = comparator;
+        }
+
+        @Override
+        boolean store(int index, Object key) {
+            values[index] = key;
+            return true;
+        }
+
+        @Override
+        Object boxed(int index) {
+            return values[index];
+        }
+
+        @Override
+        int compare(int a, int b) {
+            return comparator.compare(values[a], values[b]);
+        }
+
+        @Override
+        void ensureCapacity(int capacity) {
+            if (capacity > values.length)
+                values = Arrays.copyOf(values, grow(values.length, capacity));
+        }
+
+        @Override
+        void insert(int from, int count, int size) {
+            System.arraycopy(values, from, values, from + count, size - from);
+        }
+
+        @Override
+        void remove(int from, int count, int size) {
+            System.arraycopy(values, from + count, values, from, size - from - count);
+            Arrays.fill(values, size - count, size, null);
+        }
+
+        @Override
+        int capacity() {
+            return values.length;
+        }
+    }
+}
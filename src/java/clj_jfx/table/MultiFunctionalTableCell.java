@@ -22,23 +22,53 @@ import javafx.scene.control.Label;
 import javafx.scene.control.TableCell;
 
 import java.io.PrintStream;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.Objects;
 
 public class MultiFunctionalTableCell<S, T> extends TableCell<S, T> {
 
+    /**
+     * Node and property created by the control factory.
+     */
+    private static final class Entry {
+        final Node node;
+        final Property<Object> property;
+
+        Entry(Node node, Property<Object> property) {
+            this.node = node;
+            this.property = property;
+        }
+    }
+
+
     private IFn controlFactory;
+    // optional (fn [row-index, item] type), nodes of the same type are reused instead of created per row
+    private IFn typeFn;
+    private final Map<Object, Entry> pool = new HashMap<>();
+    private Object type;
 
     private int rowIndex = -1;
     private Node node;
-    private Property nodeProperty;
-    private Property renderedProperty;
+    private Property<Object> nodeProperty;
+    private Property<Object> renderedProperty;
 
     private final Keyword nodeKW = Keyword.intern("node");
     private final Keyword propertyKW = Keyword.intern("property");
 
 
     public MultiFunctionalTableCell(IFn controlFactory) {
+        this(controlFactory, null);
+    }
+
+
+    /**
+     * When a type function is given, the cell keeps the node and property created by the control factory per type
+     * and rebinds them for rows of the same type instead of calling the control factory again.
+     */
+    public MultiFunctionalTableCell(IFn controlFactory, IFn typeFn) {
         this.controlFactory = controlFactory;
+        this.typeFn = typeFn;
 
         // do not show anything until the cell is non-empty
         setGraphic(null);
@@ -62,13 +92,12 @@ public class MultiFunctionalTableCell<S, T> extends TableCell<S, T> {
         return -2;
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     public void updateItem(T item, boolean empty) {
         super.updateItem(item, empty);
 
         if (empty) {
-            Property newRenderedProperty = getProperty();
+            Property<Object> newRenderedProperty = getProperty();
             if( newRenderedProperty == null ) {
                 setText(null);
                 setGraphic(null);
@@ -76,36 +105,33 @@ public class MultiFunctionalTableCell<S, T> extends TableCell<S, T> {
         } else {
             int newRowIndex = getRowIndex();
 
-            Property newRenderedProperty = getProperty();
+            Property<Object> newRenderedProperty = getProperty();
 
-            // row index changed?
-            if (newRowIndex != rowIndex) {
-                Map controlMap = (Map) controlFactory.invoke(newRowIndex, item);
-                rowIndex = newRowIndex;
+            if (typeFn != null) {
+                // pooled nodes: determine type and reuse the node of that type if there is one
+                Object newType = typeFn.invoke(newRowIndex, item);
 
-                Node newNode = (Node) controlMap.get(nodeKW);
-                Property newNodeProperty = (Property) controlMap.get(propertyKW);
+                if (newRowIndex != rowIndex || !Objects.equals(newType, type) || node == null) {
+                    rowIndex = newRowIndex;
+                    type = newType;
 
-                // when node changed
-                if (node != newNode) {
-                    // clean up when node changed
-                    if (node != null)
-                        node.disableProperty().unbind();
-                    if (renderedProperty != null)
-                        nodeProperty.unbindBidirectional(renderedProperty);
+                    Entry entry = pool.get(newType);
+                    if (entry == null) {
+                        entry = createEntry(newRowIndex, item);
+                        pool.put(newType, entry);
+                    }
 
-                    // handle new rendered property
-                    if (renderedProperty != newRenderedProperty)
-                        renderedProperty = newRenderedProperty;
-
-                    // assign new values
-                    node = newNode;
-                    nodeProperty = newNodeProperty;
-
-                    // set node and bind property
+                    switchNode(entry.node, entry.property, newRenderedProperty);
+                } else {
                     setGraphic(node);
-                    nodeProperty.bindBidirectional(renderedProperty);
                 }
+            }
+            // row index changed?
+            else if (newRowIndex != rowIndex) {
+                Entry entry = createEntry(newRowIndex, item);
+                rowIndex = newRowIndex;
+
+                switchNode(entry.node, entry.property, newRenderedProperty);
             }else{
                 setGraphic(node);
             }
@@ -130,13 +156,43 @@ public class MultiFunctionalTableCell<S, T> extends TableCell<S, T> {
         }
     }
 
-    private Property getProperty() {
-        ObservableValue obs = getTableColumn().getCellObservableValue(getIndex());
+    @SuppressWarnings("unchecked")
+    private Entry createEntry(int rowIndex, T item) {
+        Map<?, ?> controlMap = (Map<?, ?>) controlFactory.invoke(rowIndex, item);
+        return new Entry((Node) controlMap.get(nodeKW), (Property<Object>) controlMap.get(propertyKW));
+    }
+
+    private void switchNode(Node newNode, Property<Object> newNodeProperty, Property<Object> newRenderedProperty) {
+        // when node changed
+        if (node != newNode) {
+            // clean up when node changed
+            if (node != null)
+                node.disableProperty().unbind();
+            if (renderedProperty != null)
+                nodeProperty.unbindBidirectional(renderedProperty);
+
+            // handle new rendered property
+            if (renderedProperty != newRenderedProperty)
+                renderedProperty = newRenderedProperty;
+
+            // assign new values
+            node = newNode;
+            nodeProperty = newNodeProperty;
+
+            // set node and bind property
+            setGraphic(node);
+            nodeProperty.bindBidirectional(renderedProperty);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Property<Object> getProperty() {
+        ObservableValue<T> obs = getTableColumn().getCellObservableValue(getIndex());
 
         if ( obs != null && !(obs instanceof Property))
             throw new RuntimeException("The MultiFunctionalTableCell supports only properties (not observables) due to bidirectional binding.");
 
-        return (Property) obs;
+        return (Property<Object>) obs;
     }
 
 }
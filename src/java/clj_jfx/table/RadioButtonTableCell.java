@@ -9,69 +9,65 @@
 package clj_jfx.table;
 
 import javafx.beans.property.Property;
-import javafx.beans.binding.Bindings;
-import javafx.beans.value.ObservableValue;
 import javafx.geometry.Pos;
-import javafx.scene.control.CheckBox;
+import javafx.scene.Group;
 import javafx.scene.control.ContentDisplay;
 import javafx.scene.control.RadioButton;
-import javafx.scene.control.TableCell;
-import javafx.util.Callback;
-import javafx.util.StringConverter;
+import javafx.scene.shape.Circle;
 
-public class RadioButtonTableCell<S,T> extends TableCell<S,T> {
+public class RadioButtonTableCell<S,T> extends SharedEditorTableCell<S,T,RadioButton> {
 
-    private final RadioButton radioButton;
-    
-    private Property<Boolean> renderedProperty;
+    // static representation
+    private final Group glyph;
+    private final Circle dot;
 
 
     public RadioButtonTableCell() {
+        super(RadioButtonTableCell.class);
 
-        radioButton = new RadioButton();
-        radioButton.setContentDisplay( ContentDisplay.GRAPHIC_ONLY );
+        // colors are set via the user agent stylesheet of SharedEditorTableCell
+        Circle ring = new Circle(6.5);
+        ring.getStyleClass().add("radio");
 
-        // do not show anything until the cell is non-empty
-        setGraphic(null);
-        setText(null);
+        dot = new Circle(3);
+        dot.getStyleClass().add("dot");
+
+        glyph = new Group(ring, dot);
+        glyph.getStyleClass().add("static-radio-button");
 
         setAlignment( Pos.CENTER );
     }
 
+    /**
+     * Returns the radio button shared by the cells of the column of this cell.
+     */
     public RadioButton getRadioButton(){
-        return radioButton;
+        return getEditor();
     }
 
     @Override
-    public void updateItem(T item, boolean empty) {
-        super.updateItem(item, empty);
-        
-        if (empty) {
-            setText(null);
-            setGraphic(null);
-        } else {
-            setGraphic(radioButton);
-
+    protected RadioButton createEditor() {
+        RadioButton radioButton = new RadioButton();
+        radioButton.setContentDisplay( ContentDisplay.GRAPHIC_ONLY );
+        return radioButton;
+    }
 
-            if ( renderedProperty != null ) {
-                radioButton.selectedProperty().unbindBidirectional(renderedProperty);
-            }
+    @SuppressWarnings("unchecked")
+    @Override
+    protected void bindEditor(RadioButton radioButton, Property<T> property) {
+        radioButton.selectedProperty().bindBidirectional((Property)property);
+    }
 
-            ObservableValue obsValue = getSelectedProperty();
-            if (obsValue instanceof Property) {
-                renderedProperty = (Property)obsValue;
-                radioButton.selectedProperty().bindBidirectional(renderedProperty);
-            }
-            
-            radioButton.disableProperty().bind(
-                    Bindings.not(getTableView().editableProperty().and(
-                    getTableColumn().editableProperty()).and(
-                    editableProperty())
-                ));
-        }
+    @SuppressWarnings("unchecked")
+    @Override
+    protected void unbindEditor(RadioButton radioButton, Property<T> property) {
+        radioButton.selectedProperty().unbindBidirectional((Property)property);
     }
-    
-    private ObservableValue getSelectedProperty() {
-        return getTableColumn().getCellObservableValue(getIndex());
+
+    @Override
+    protected void renderStatic(T item) {
+        dot.setVisible( Boolean.TRUE.equals(item) );
+        setText(null);
+        setGraphic(glyph);
     }
 }
@@ -0,0 +1,271 @@
+// Copyright (c) Gunnar Völkel. All rights reserved.
+// The use and distribution terms for this software are covered by the
+// Eclipse Public License 2.0 (http://www.eclipse.org/legal/epl-v20.html)
+// which can be found in the file LICENSE at the root of this distribution.
+// By using this software in any fashion, you are agreeing to be bound by
+// the terms of this license.
+// You must not remove this notice, or any other, from this software.
+
+package clj_jfx.table;
+
+import javafx.beans.InvalidationListener;
+import javafx.beans.Observable;
+import javafx.beans.property.Property;
+import javafx.beans.value.ObservableValue;
+import javafx.scene.Node;
+import javafx.scene.control.ComboBoxBase;
+import javafx.scene.control.TableCell;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+
+/**
+ * Table cell that renders a cheap static representation of its value (glyph, swatch, text) and only shows a real
+ * editing control while the cell is hovered, focused or edited.
+ * The editing control is created once per column and shared by all cells of that column:
+ * it moves to the cell that requests it and the previous cell falls back to its static representation.
+ */
+public abstract class SharedEditorTableCell<S, T, C extends Node> extends TableCell<S, T> {
+
+    // styles the static representations, such that they follow the colors of the theme like the editors do
+    private static final String USER_AGENT_STYLESHEET =
+            SharedEditorTableCell.class.getResource("/clj_jfx/shared-editor-table-cell.css").toExternalForm();
+
+    /**
+     * The editor of a column together with the cell it is currently attached to.
+     * The editor is discarded when the cell factory of the column changes, since the new cells might need a
+     * differently configured editor.
+     */
+    private static class SharedEditor<C extends Node> implements InvalidationListener {
+
+        private final C editor;
+        private final TableColumn<?, ?> column;
+        private final Object editorKey;
+        private final SharedEditorTableCell<?, ?, C> creator;
+        private SharedEditorTableCell<?, ?, C> owner;
+
+        SharedEditor(C editor, TableColumn<?, ?> column, Object editorKey, SharedEditorTableCell<?, ?, C> creator) {
+            this.editor = editor;
+            this.column = column;
+            this.editorKey = editorKey;
+            this.creator = creator;
+            column.cellFactoryProperty().addListener(this);
+        }
+
+        boolean attach(SharedEditorTableCell<?, ?, C> cell) {
+            if (owner == cell)
+                return true;
+
+            if (owner != null) {
+                // do not take away the editor while the user is working with it
+                if (owner.isEditorInUse(editor))
+                    return false;
+                owner.editorRemoved();
+            }
+
+            owner = cell;
+            cell.editorAdded(editor);
+            return true;
+        }
+
+        void release(SharedEditorTableCell<?, ?, C> cell) {
+            if (owner == cell)
+                owner = null;
+        }
+
+        @Override
+        public void invalidated(Observable observable) {
+            // cell factory changed
+            column.cellFactoryProperty().removeListener(this);
+            column.getProperties().remove(editorKey, this);
+            if (owner != null) {
+                SharedEditorTableCell<?, ?, C> previousOwner = owner;
+                owner = null;
+                previousOwner.editorRemoved();
+            }
+            creator.disposeEditor(editor);
+        }
+    }
+
+
+    private final Object editorKey;
+
+    // editor and property while the shared editor is attached to this cell
+    private C attachedEditor;
+    private Property<T> attachedProperty;
+
+
+    /**
+     * @param editorKey key of the shared editor in the properties of the table column,
+     *                  cells of different kinds in the same column need different keys
+     */
+    protected SharedEditorTableCell(Object editorKey) {
+        this.editorKey = editorKey;
+
+        InvalidationListener requestListener = observable -> requestEditor();
+        hoverProperty().addListener(requestListener);
+        focusedProperty().addListener(requestListener);
+        editingProperty().addListener(requestListener);
+
+        // do not show anything until the cell is non-empty
+        setGraphic(null);
+        setText(null);
+    }
+
+
+    @Override
+    public String getUserAgentStylesheet() {
+        return USER_AGENT_STYLESHEET;
+    }
+
+
+    /**
+     * Creates the editor of the column. Called at most once per column.
+     */
+    protected abstract C createEditor();
+
+    /**
+     * Connects the editor to the property of the cell.
+     */
+    protected abstract void bindEditor(C editor, Property<T> property);
+
+    /**
+     * Disconnects the editor from the property of the cell.
+     */
+    protected abstract void unbindEditor(C editor, Property<T> property);
+
+    /**
+     * Shows the static representation of the given non-empty item, i.e. sets text and graphic of the cell.
+     */
+    protected abstract void renderStatic(T item);
+
+    /**
+     * Releases the resources of an editor that is discarded because the cell factory of its column changed.
+     */
+    protected void disposeEditor(C editor) {
+    }
+
+    /**
+     * Called when the item changed while the editor is attached to this cell.
+     * Editors bound bidirectionally do not need to do anything.
+     */
+    protected void updateEditor(C editor, T item) {
+    }
+
+    /**
+     * Returns whether the given item can be edited with the editor at all.
+     */
+    protected boolean isEditorApplicable(T item) {
+        return true;
+    }
+
+    /**
+     * Returns whether the user currently works with the editor such that it must not be moved to another cell.
+     */
+    protected boolean isEditorInUse(C editor) {
+        return editor instanceof ComboBoxBase && ((ComboBoxBase<?>) editor).isShowing();
+    }
+
+
+    /**
+     * Returns the editor shared by the cells of the column of this cell or null when the cell is not part of a column.
+     */
+    public C getEditor() {
+        SharedEditor<C> sharedEditor = getSharedEditor();
+        return sharedEditor != null ? sharedEditor.editor : null;
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private SharedEditor<C> getSharedEditor() {
+        TableColumn<S, T> column = getTableColumn();
+
+        if (column == null)
+            return null;
+
+        return (SharedEditor<C>) column.getProperties().computeIfAbsent(editorKey, key -> new SharedEditor<>(createEditor(), column, editorKey, this));
+    }
+
+
+    private ObservableValue<T> getCellObservable() {
+        TableColumn<S, T> column = getTableColumn();
+
+        if (column == null)
+            return null;
+
+        return column.getCellObservableValue(getIndex());
+    }
+
+
+    private boolean isCellEditable() {
+        TableView<S> table = getTableView();
+        TableColumn<S, T> column = getTableColumn();
+        return table != null && column != null && table.isEditable() && column.isEditable() && isEditable();
+    }
+
+
+    private void requestEditor() {
+        if (attachedEditor != null || isEmpty() || !(isHover() || isFocused() || isEditing()))
+            return;
+
+        // read-only observables cannot be edited
+        if (!isCellEditable() || !isEditorApplicable(getItem()) || !(getCellObservable() instanceof Property))
+            return;
+
+        SharedEditor<C> sharedEditor = getSharedEditor();
+        if (sharedEditor != null)
+            sharedEditor.attach(this);
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private void editorAdded(C editor) {
+        attachedEditor = editor;
+        attachedProperty = (Property<T>) getCellObservable();
+        bindEditor(editor, attachedProperty);
+        setText(null);
+        setGraphic(editor);
+    }
+
+
+    private void detachEditor() {
+        C editor = attachedEditor;
+        Property<T> property = attachedProperty;
+        attachedEditor = null;
+        attachedProperty = null;
+        unbindEditor(editor, property);
+        setGraphic(null);
+    }
+
+
+    private void editorRemoved() {
+        detachEditor();
+        if (!isEmpty())
+            renderStatic(getItem());
+    }
+
+
+    @Override
+    public void updateItem(T item, boolean empty) {
+        super.updateItem(item, empty);
+
+        if (attachedEditor != null) {
+            if (empty || getCellObservable() != attachedProperty || !isCellEditable() || !isEditorApplicable(item)) {
+                SharedEditor<C> sharedEditor = getSharedEditor();
+                if (sharedEditor != null)
+                    sharedEditor.release(this);
+                detachEditor();
+            } else {
+                updateEditor(attachedEditor, item);
+                return;
+            }
+        }
+
+        if (empty) {
+            setText(null);
+            setGraphic(null);
+        } else {
+            renderStatic(item);
+            requestEditor();
+        }
+    }
+}
@@ -0,0 +1,169 @@
+// Copyright (c) Gunnar Völkel. All rights reserved.
+// The use and distribution terms for this software are covered by the
+// Eclipse Public License 2.0 (http://www.eclipse.org/legal/epl-v20.html)
+// which can be found in the file LICENSE at the root of this distribution.
+// By using this software in any fashion, you are agreeing to be bound by
+// the terms of this license.
+// You must not remove this notice, or any other, from this software.
+
+package clj_jfx.traversal;
+
+import clojure.lang.IFn;
+import clojure.lang.RT;
+import clojure.lang.Reduced;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Iterative pre-order and post-order reduction over node trees using an explicit stack.
+ * The children function returns the children of a node either as a list (which is iterated in place),
+ * as a single child node or null. Reduction stops early when the reducing function returns a reduced value.
+ * Children of nodes for which the optional prune function returns true are skipped.
+ * The traversed containers must not be modified during the reduction.
+ */
+public final class NodeTraversal {
+
+    private static final int INITIAL_DEPTH = 16;
+
+    private final IFn childrenFn;
+    private final IFn pruneFn;
+
+    private Object[] nodes = new Object[INITIAL_DEPTH];
+    private Object[] children = new Object[INITIAL_DEPTH];
+    private int[] positions = new int[INITIAL_DEPTH];
+    private int depth = 0;
+
+
+    private NodeTraversal(IFn childrenFn, IFn pruneFn) {
+        this.childrenFn = childrenFn;
+        this.pruneFn = pruneFn;
+    }
+
+
+    public static Object reducePreOrder(IFn childrenFn, IFn pruneFn, IFn f, Object init, Object root) {
+        return new NodeTraversal(childrenFn, pruneFn).preOrder(f, init, root);
+    }
+
+
+    public static Object reducePostOrder(IFn childrenFn, IFn pruneFn, IFn f, Object init, Object root) {
+        return new NodeTraversal(childrenFn, pruneFn).postOrder(f, init, root);
+    }
+
+
+    private static int childCount(Object children) {
+        if (children == null)
+            return 0;
+        if (children instanceof List)
+            return ((List<?>) children).size();
+        return 1;
+    }
+
+
+    private static Object childAt(Object children, int index) {
+        if (children instanceof List)
+            return ((List<?>) children).get(index);
+        return children;
+    }
+
+
+    private Object expand(Object node) {
+        if (pruneFn != null && RT.booleanCast(pruneFn.invoke(node)))
+            return null;
+
+        Object result = childrenFn.invoke(node);
+        // other collections (e.g. sets) cannot be accessed by index
+        if (result instanceof Collection && !(result instanceof List))
+            result = new ArrayList<Object>((Collection<?>) result);
+
+        return childCount(result) > 0 ? result : null;
+    }
+
+
+    private void push(Object node, Object nodeChildren) {
+        if (depth == positions.length) {
+            int capacity = 2 * depth;
+            nodes = Arrays.copyOf(nodes, capacity);
+            children = Arrays.copyOf(children, capacity);
+            positions = Arrays.copyOf(positions, capacity);
+        }
+        nodes[depth] = node;
+        children[depth] = nodeChildren;
+        positions[depth] = 0;
+        depth++;
+    }
+
+
+    private void pop() {
+        depth--;
+        nodes[depth] = null;
+        children[depth] = null;
+    }
+
+
+    private Object preOrder(IFn f, Object init, Object root) {
+        Object result = f.invoke(init, root);
+        if (RT.isReduced(result))
+            return ((Reduced) result).deref();
+
+        Object rootChildren = expand(root);
+        if (rootChildren != null)
+            push(root, rootChildren);
+
+        while (depth > 0) {
+            int top = depth - 1;
+            Object nodeChildren = children[top];
+            int position = positions[top];
+
+            if (position >= childCount(nodeChildren)) {
+                pop();
+                continue;
+            }
+
+            positions[top] = position + 1;
+            Object child = childAt(nodeChildren, position);
+            if (child == null)
+                continue;
+
+            result = f.invoke(result, child);
+            if (RT.isReduced(result))
+                return ((Reduced) result).deref();
+
+            Object grandChildren = expand(child);
+            if (grandChildren != null)
+                push(child, grandChildren);
+        }
+
+        return result;
+    }
+
+
+    private Object postOrder(IFn f, Object init, Object root) {
+        Object result = init;
+        push(root, expand(root));
+
+        while (depth > 0) {
+            int top = depth - 1;
+            Object nodeChildren = children[top];
+            int position = positions[top];
+
+            if (position < childCount(nodeChildren)) {
+                positions[top] = position + 1;
+                Object child = childAt(nodeChildren, position);
+                if (child != null)
+                    push(child, expand(child));
+                continue;
+            }
+
+            Object node = nodes[top];
+            pop();
+            result = f.invoke(result, node);
+            if (RT.isReduced(result))
+                return ((Reduced) result).deref();
+        }
+
+        return result;
+    }
+}
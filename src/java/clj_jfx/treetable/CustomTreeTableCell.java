@@ -8,6 +8,7 @@
 
 package clj_jfx.treetable;
 
+import clj_jfx.properties.ConverterBinding;
 import clojure.lang.IFn;
 import javafx.beans.binding.Bindings;
 import javafx.beans.property.Property;
@@ -17,8 +18,6 @@ import javafx.scene.Node;
 import javafx.scene.control.Label;
 import javafx.scene.control.TreeTableCell;
 
-import java.util.concurrent.Callable;
-
 public class CustomTreeTableCell<S, T> extends TreeTableCell<S, T> {
 
 
@@ -28,6 +27,8 @@ public class CustomTreeTableCell<S, T> extends TreeTableCell<S, T> {
 
     private Property renderedProperty;
     private ObservableValue renderedObservable;
+    // only used with value converter
+    private ConverterBinding converterBinding;
 
 
     public CustomTreeTableCell(Node cellNode, Property cellNodeValueProp) {
@@ -62,39 +63,43 @@ public class CustomTreeTableCell<S, T> extends TreeTableCell<S, T> {
             setText(null);
             setGraphic(null);
         } else {
-            setText(null);
-            setGraphic(cellNode);
-
-
-            if (renderedProperty != null) {
-                cellNodeValueProp.unbindBidirectional(renderedProperty);
-                renderedProperty = null;
-            }
-
-            if (renderedObservable != null) {
-                cellNodeValueProp.unbind();
-                renderedObservable = null;
-            }
+            if (getText() != null)
+                setText(null);
+            if (getGraphic() != cellNode)
+                setGraphic(cellNode);
 
             ObservableValue obsValue = getObservableValue();
-            if (valueConverter != null) {
-                ObservableValue source = obsValue;
 
-                obsValue = Bindings.createObjectBinding(
-                        (Callable) () -> valueConverter.invoke(source.getValue()),
-                        obsValue);
-            }
-
-            if (obsValue instanceof Property) {
-                renderedProperty = (Property<T>) obsValue;
-                cellNodeValueProp.bindBidirectional(renderedProperty);
-            } else {
-                renderedObservable = obsValue;
-                cellNodeValueProp.bind(renderedObservable);
+            if (valueConverter != null) {
+                // the cell's converter binding switches to the new observable
+                if (converterBinding == null) {
+                    converterBinding = new ConverterBinding(valueConverter);
+                    cellNodeValueProp.bind(converterBinding);
+                }
+                converterBinding.setSource(obsValue);
+            } else if (obsValue == null || (obsValue != renderedProperty && obsValue != renderedObservable)) {
+                // rebind only when the cell renders a different observable
+                if (renderedProperty != null) {
+                    cellNodeValueProp.unbindBidirectional(renderedProperty);
+                    renderedProperty = null;
+                }
+
+                if (renderedObservable != null) {
+                    cellNodeValueProp.unbind();
+                    renderedObservable = null;
+                }
+
+                if (obsValue instanceof Property) {
+                    renderedProperty = (Property<T>) obsValue;
+                    cellNodeValueProp.bindBidirectional(renderedProperty);
+                } else if (obsValue != null) {
+                    renderedObservable = obsValue;
+                    cellNodeValueProp.bind(renderedObservable);
+                }
             }
 
 
-            if (cellNode!=null && !(cellNode instanceof Label))
+            if (cellNode!=null && !(cellNode instanceof Label) && !cellNode.disableProperty().isBound())
                 cellNode.disableProperty().bind(
                         Bindings.not(
                                 getTreeTableView().editableProperty().and(
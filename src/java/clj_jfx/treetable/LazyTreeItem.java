@@ -0,0 +1,61 @@
+// Copyright (c) Gunnar Völkel. All rights reserved.
+// The use and distribution terms for this software are covered by the
+// Eclipse Public License 2.0 (http://www.eclipse.org/legal/epl-v20.html)
+// which can be found in the file LICENSE at the root of this distribution.
+// By using this software in any fashion, you are agreeing to be bound by
+// the terms of this license.
+// You must not remove this notice, or any other, from this software.
+
+package clj_jfx.treetable;
+
+import clojure.lang.IFn;
+import clojure.lang.RT;
+import javafx.collections.ObservableList;
+import javafx.scene.control.TreeItem;
+
+/**
+ * Tree item that creates its child items only when they are requested for the first time,
+ * i.e. when the item is expanded or the view asks for the children.
+ * Until then, whether the item is a leaf is determined from the data via the leaf function.
+ */
+public class LazyTreeItem<T> extends TreeItem<T> {
+
+    private final IFn leafFn;
+    private IFn materializeFn;
+
+
+    /**
+     * @param leafFn        (fn [] leaf?) determines from the data whether the item has no children
+     * @param materializeFn (fn [tree-item] ...) fills and binds the children list of the item, called at most once
+     */
+    public LazyTreeItem(IFn leafFn, IFn materializeFn) {
+        this.leafFn = leafFn;
+        this.materializeFn = materializeFn;
+    }
+
+
+    public boolean isMaterialized() {
+        return materializeFn == null;
+    }
+
+
+    @Override
+    public ObservableList<TreeItem<T>> getChildren() {
+        if (materializeFn != null) {
+            // reset first, since materialization accesses the children list
+            IFn f = materializeFn;
+            materializeFn = null;
+            f.invoke(this);
+        }
+        return super.getChildren();
+    }
+
+
+    @Override
+    public boolean isLeaf() {
+        if (materializeFn != null)
+            return RT.booleanCast(leafFn.invoke());
+
+        return super.isLeaf();
+    }
+}